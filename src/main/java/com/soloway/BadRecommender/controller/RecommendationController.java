@@ -4,18 +4,25 @@ import com.soloway.BadRecommender.model.UserAnswer;
 import com.soloway.BadRecommender.model.Question;
 import com.soloway.BadRecommender.model.Supplement;
 
+import com.soloway.BadRecommender.service.RecommendationCalculationService;
 import com.soloway.BadRecommender.service.RecommendationService;
 import com.soloway.BadRecommender.service.ScoreCalculationService;
-import com.soloway.BadRecommender.service.GoogleSheetsService;
 import com.soloway.BadRecommender.service.GoogleSheetsDataService;
-import com.soloway.BadRecommender.service.EmailService;
+import com.soloway.BadRecommender.service.EmailQueueService;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import java.io.IOException;
 
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 
 @RestController
 @RequestMapping("/api/recommendation")
@@ -23,15 +30,22 @@ import java.util.HashMap;
 public class RecommendationController {
 
   private final RecommendationService recommendationService;
-      private final GoogleSheetsService googleSheetsService;
   private final GoogleSheetsDataService googleSheetsDataService;
-  private final EmailService emailService;
+  private final RecommendationCalculationService recommendationCalculationService;
+  private final ScoreCalculationService scoreCalculationService;
+  private final ObjectMapper objectMapper;
+  private final EmailQueueService emailQueueService;
+  private final int maxBatchSize;
 
-      public RecommendationController(RecommendationService recommendationService, GoogleSheetsService googleSheetsService, GoogleSheetsDataService googleSheetsDataService, EmailService emailService) {
+      public RecommendationController(RecommendationService recommendationService, GoogleSheetsDataService googleSheetsDataService, RecommendationCalculationService recommendationCalculationService, ScoreCalculationService scoreCalculationService, ObjectMapper objectMapper, EmailQueueService emailQueueService,
+                                      @Value("${recommendation.batch.max-size:10000}") int maxBatchSize) {
         this.recommendationService = recommendationService;
-        this.googleSheetsService = googleSheetsService;
         this.googleSheetsDataService = googleSheetsDataService;
-        this.emailService = emailService;
+        this.recommendationCalculationService = recommendationCalculationService;
+        this.scoreCalculationService = scoreCalculationService;
+        this.objectMapper = objectMapper;
+        this.emailQueueService = emailQueueService;
+        this.maxBatchSize = maxBatchSize;
     }
 
   // 🔹 Получить все доступные темы здоровья
@@ -91,7 +105,8 @@ public class RecommendationController {
     System.out.println("   Основных рекомендаций: " + result.getMainRecommendations().size());
     System.out.println("   Дополнительных рекомендаций: " + result.getAdditionalRecommendations().size());
     
-    // Отправляем email с рекомендациями, если предоставлен email и дано согласие
+    // Ставим email с рекомендациями в очередь, если предоставлен email и дано согласие.
+    // Отправка идет в фоне, ответ возвращается сразу после расчета.
     if (request.getEmail() != null && !request.getEmail().trim().isEmpty() && request.isConsentPd()) {
         try {
             // Получаем имя пользователя из запроса
@@ -101,17 +116,15 @@ public class RecommendationController {
             List<Supplement> mainSupplements = convertToSupplements(result.getMainRecommendations());
             List<Supplement> additionalSupplements = convertToSupplements(result.getAdditionalRecommendations());
             
-            emailService.sendHtmlRecommendationsEmail(
+            emailQueueService.enqueueRecommendationsEmail(
                 request.getEmail(),
                 userName,
                 request.getSelectedTopic(),
                 mainSupplements,
                 additionalSupplements
             );
-            
-            System.out.println("📧 Email с рекомендациями отправлен на: " + request.getEmail());
         } catch (Exception e) {
-            System.err.println("❌ Ошибка отправки email: " + e.getMessage());
+            System.err.println("❌ Ошибка постановки email в очередь: " + e.getMessage());
             // Не прерываем выполнение, если email не отправился
         }
     } else {
@@ -121,6 +134,43 @@ public class RecommendationController {
     return result;
   }
 
+  // 🔹 Пакетный расчет рекомендаций для множества наборов ответов (без отправки email)
+  @PostMapping("/batch")
+  public ResponseEntity<StreamingResponseBody> submitBatch(
+      @RequestBody List<ScoreCalculationService.BatchItem> items) {
+    
+    System.out.println("📦 Пакетный запрос рекомендаций: наборов ответов " + items.size());
+    
+    // Один большой пакет не должен занять все ядра в ущерб интерактивным расчетам
+    if (items.size() > maxBatchSize) {
+      System.err.println("⚠️ Пакет отклонен: " + items.size() + " наборов ответов при лимите " + maxBatchSize);
+      String message = "Слишком большой пакет: " + items.size() + " наборов ответов, максимум " + maxBatchSize;
+      return ResponseEntity.badRequest()
+          .contentType(MediaType.APPLICATION_JSON)
+          .body(outputStream -> objectMapper.writeValue(outputStream, Map.of("error", message)));
+    }
+    
+    // Результаты пишутся в JSON-массив по мере расчета, без накопления всего ответа в памяти
+    StreamingResponseBody body = outputStream -> {
+      try (JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream)) {
+        generator.writeStartArray();
+        scoreCalculationService.calculateBatchScores(items, (index, item, result) -> {
+          Map<String, Object> entry = new LinkedHashMap<>();
+          entry.put("index", index);
+          entry.put("selectedTopic", item.getSelectedTopic());
+          entry.put("mainRecommendations", result.getMainRecommendations());
+          entry.put("additionalRecommendations", result.getAdditionalRecommendations());
+          objectMapper.writeValue(generator, entry);
+        });
+        generator.writeEndArray();
+      }
+    };
+    
+    return ResponseEntity.ok()
+        .contentType(MediaType.APPLICATION_JSON)
+        .body(body);
+  }
+
   // 🔹 Тестовый эндпоинт для демонстрации работы системы
   @GetMapping("/demo")
   public ScoreCalculationService.RecommendationResult getDemoRecommendations() throws IOException {
@@ -175,7 +225,8 @@ public class RecommendationController {
     System.out.println("🧪 Тестируем описания добавок");
     
     try {
-      List<Supplement> supplements = googleSheetsService.loadSupplements();
+      // Добавки из текущего снимка данных, без отдельного запроса к Google Sheets
+      List<Supplement> supplements = googleSheetsDataService.getSnapshot().getSupplements();
       System.out.println("📋 Найдено добавок: " + supplements.size());
       
       for (Supplement supplement : supplements) {
@@ -222,6 +273,16 @@ public class RecommendationController {
     }
   }
 
+  // 🔹 Тестовый эндпоинт: фрагменты названий из таблицы правил, которые не находят добавок
+  @GetMapping("/test-rule-patterns")
+  public Map<String, Object> testRulePatterns() {
+    System.out.println("🧪 Проверяем фрагменты названий в таблице правил");
+    
+    Map<String, Object> report = recommendationCalculationService.getRulePatternReport();
+    System.out.println("⚠️ Фрагменты без совпадений: " + report.get("unmatchedPatterns"));
+    return report;
+  }
+
   // 🔹 Тестовый эндпоинт для диагностики Google Sheets
   @GetMapping("/test-sheets-diagnostic")
   public Map<String, Object> testSheetsDiagnostic() {
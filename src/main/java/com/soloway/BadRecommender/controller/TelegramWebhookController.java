@@ -7,9 +7,12 @@ import com.soloway.BadRecommender.model.SupplementScore;
 import com.soloway.BadRecommender.service.TelegramUserService;
 import com.soloway.BadRecommender.service.TelegramSurveyService;
 import com.soloway.BadRecommender.service.ScoreCalculationService;
+import com.soloway.BadRecommender.service.TelegramApiClient;
+import com.soloway.BadRecommender.service.TelegramUpdateDispatcher;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.telegram.telegrambots.meta.api.objects.Update;
@@ -18,12 +21,9 @@ import org.telegram.telegrambots.meta.api.objects.replykeyboard.buttons.Keyboard
 import org.telegram.telegrambots.meta.api.objects.replykeyboard.buttons.KeyboardButton;
 import org.telegram.telegrambots.meta.api.objects.replykeyboard.InlineKeyboardMarkup;
 import org.telegram.telegrambots.meta.api.objects.replykeyboard.buttons.InlineKeyboardButton;
-import org.springframework.web.reactive.function.client.WebClient;
-import reactor.core.publisher.Mono;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.HashMap;
 import java.util.Map;
 
 /**
@@ -35,27 +35,29 @@ public class TelegramWebhookController {
 
     private static final Logger logger = LoggerFactory.getLogger(TelegramWebhookController.class);
 
+    private static final int MAX_CAPTION_LENGTH = 1024;
+
     private final TelegramBotConfig botConfig;
     private final TelegramUserService userService;
     private final TelegramSurveyService surveyService;
-    private final WebClient webClient;
+    private final TelegramApiClient telegramApiClient;
+    private final TelegramUpdateDispatcher updateDispatcher;
 
     @Autowired
-    public TelegramWebhookController(TelegramBotConfig botConfig, TelegramUserService userService, TelegramSurveyService surveyService) {
+    public TelegramWebhookController(TelegramBotConfig botConfig, TelegramUserService userService, TelegramSurveyService surveyService,
+                                     TelegramApiClient telegramApiClient, TelegramUpdateDispatcher updateDispatcher) {
         this.botConfig = botConfig;
         this.userService = userService;
         this.surveyService = surveyService;
-        this.webClient = WebClient.builder()
-                .codecs(configurer -> configurer.defaultCodecs().maxInMemorySize(1024 * 1024)) // 1MB
-                .build();
+        this.telegramApiClient = telegramApiClient;
+        this.updateDispatcher = updateDispatcher;
         logger.info("TelegramWebhookController создан");
     }
 
     @PostMapping("/{token}")
     public ResponseEntity<String> handleWebhook(@PathVariable String token, @RequestBody Update update) {
         logger.info("=== ПОЛУЧЕНО WEBHOOK ОБНОВЛЕНИЕ ОТ TELEGRAM ===");
-        logger.info("Token: {}", token);
-        logger.info("Update: {}", update);
+        logger.debug("Update: {}", update);
 
         // Проверяем токен
         if (!botConfig.getBotToken().equals(token)) {
@@ -68,6 +70,24 @@ public class TelegramWebhookController {
             return ResponseEntity.ok("Bot disabled");
         }
 
+        Long chatId;
+        if (update.hasMessage() && update.getMessage().hasText()) {
+            chatId = update.getMessage().getChatId();
+        } else if (update.hasCallbackQuery()) {
+            chatId = update.getCallbackQuery().getMessage().getChatId();
+        } else {
+            logger.debug("Получено webhook обновление без текстового сообщения: {}", update);
+            return ResponseEntity.ok("OK");
+        }
+
+        // Обработка идет в очереди чата; Telegram получает ответ сразу
+        if (!updateDispatcher.submit(chatId, () -> processUpdate(update))) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body("Busy");
+        }
+        return ResponseEntity.ok("OK");
+    }
+
+    private void processUpdate(Update update) {
         if (update.hasMessage() && update.getMessage().hasText()) {
             String messageText = update.getMessage().getText();
             Long chatId = update.getMessage().getChatId();
@@ -79,10 +99,8 @@ public class TelegramWebhookController {
 
             try {
                 handleMessage(chatId, username, firstName, lastName, messageText);
-                return ResponseEntity.ok("OK");
             } catch (Exception e) {
                 logger.error("Error handling webhook message from {}: {}", chatId, e.getMessage(), e);
-                return ResponseEntity.ok("Error handled");
             }
         } else if (update.hasCallbackQuery()) {
             String callbackData = update.getCallbackQuery().getData();
@@ -96,41 +114,39 @@ public class TelegramWebhookController {
 
             try {
                 handleCallbackQuery(chatId, username, firstName, lastName, callbackData, callbackQueryId);
-                return ResponseEntity.ok("OK");
             } catch (Exception e) {
                 logger.error("Error handling callback query from {}: {}", chatId, e.getMessage(), e);
-                return ResponseEntity.ok("Error handled");
             }
-        } else {
-            logger.debug("Получено webhook обновление без текстового сообщения: {}", update);
         }
-
-        return ResponseEntity.ok("OK");
     }
 
     private void handleMessage(Long chatId, String username, String firstName, String lastName, String messageText) {
         logger.info("Обработка webhook сообщения от {}: {}", username, messageText);
 
         TelegramUser user = userService.getUser(chatId);
-        user.setUsername(username);
-        user.setFirstName(firstName);
-        user.setLastName(lastName);
+        try {
+            user.setUsername(username);
+            user.setFirstName(firstName);
+            user.setLastName(lastName);
+
+            if ("/start".equals(messageText)) {
+                logger.info("Обработка команды /start для пользователя {}", username);
+                handleStartCommand(user);
+            } else if ("/help".equals(messageText)) {
+                logger.info("Обработка команды /help для пользователя {}", username);
+                handleHelpCommand(user);
+            } else if ("/reset".equals(messageText)) {
+                logger.info("Обработка команды /reset для пользователя {}", username);
+                handleResetCommand(user);
+            } else {
+                logger.info("Обработка обычного сообщения от {}: {}", username, messageText);
+                handleRegularMessage(user, messageText);
+            }
 
-        if ("/start".equals(messageText)) {
-            logger.info("Обработка команды /start для пользователя {}", username);
-            handleStartCommand(user);
-        } else if ("/help".equals(messageText)) {
-            logger.info("Обработка команды /help для пользователя {}", username);
-            handleHelpCommand(user);
-        } else if ("/reset".equals(messageText)) {
-            logger.info("Обработка команды /reset для пользователя {}", username);
-            handleResetCommand(user);
-        } else {
-            logger.info("Обработка обычного сообщения от {}: {}", username, messageText);
-            handleRegularMessage(user, messageText);
+            userService.updateUser(user);
+        } finally {
+            userService.releaseUser(user);
         }
-
-        userService.updateUser(user);
     }
 
     private void handleCallbackQuery(Long chatId, String username, String firstName, String lastName, String callbackData, String callbackQueryId) {
@@ -139,59 +155,69 @@ public class TelegramWebhookController {
         logger.info("ChatId: {}, CallbackQueryId: {}", chatId, callbackQueryId);
 
         TelegramUser user = userService.getUser(chatId);
-        user.setUsername(username);
-        user.setFirstName(firstName);
-        user.setLastName(lastName);
+        try {
+            user.setUsername(username);
+            user.setFirstName(firstName);
+            user.setLastName(lastName);
         
-        logger.info("Пользователь получен: {}, текущий индекс вопроса: {}", user.getUsername(), user.getCurrentQuestionIndex());
+            logger.info("Пользователь получен: {}, текущий индекс вопроса: {}", user.getUsername(), user.getCurrentQuestionIndex());
 
-        // Проверяем специальные callback'и
-        if ("NEW_SURVEY".equals(callbackData)) {
-            logger.info("Пользователь {} нажал кнопку 'Новый опрос'", user.getUsername());
+            // Проверяем специальные callback'и
+            if ("NEW_SURVEY".equals(callbackData)) {
+                logger.info("Пользователь {} нажал кнопку 'Новый опрос'", user.getUsername());
             
-            // Проверяем, не "заснул" ли пользователь
-            if (user.getState() == TelegramUser.UserState.SURVEY_COMPLETED) {
-                logger.info("Пользователь {} был в состоянии SURVEY_COMPLETED, сбрасываем опрос", user.getUsername());
-            }
+                // Проверяем, не "заснул" ли пользователь
+                if (user.getState() == TelegramUser.UserState.SURVEY_COMPLETED) {
+                    logger.info("Пользователь {} был в состоянии SURVEY_COMPLETED, сбрасываем опрос", user.getUsername());
+                }
             
-            handleStartCommand(user);
-            userService.updateUser(user);
-            answerCallbackQuery(callbackQueryId);
-            return;
-        }
+                handleStartCommand(user);
+                userService.updateUser(user);
+                answerCallbackQuery(callbackQueryId);
+                return;
+            }
         
-        if ("GENETICS".equals(callbackData)) {
-            logger.info("Пользователь {} нажал кнопку 'Генетика'", user.getUsername());
-            handleGeneticsCommand(user);
-            userService.updateUser(user);
-            answerCallbackQuery(callbackQueryId);
-            return;
-        }
+            if ("GENETICS".equals(callbackData)) {
+                logger.info("Пользователь {} нажал кнопку 'Генетика'", user.getUsername());
+                handleGeneticsCommand(user);
+                userService.updateUser(user);
+                answerCallbackQuery(callbackQueryId);
+                return;
+            }
 
-        // Обрабатываем ответ через сервис опроса
-        logger.info("Вызываем surveyService.processAnswer с ответом: {}", callbackData);
-        surveyService.processAnswer(user, callbackData);
+            if (restartIfQuestionsChanged(user)) {
+                userService.updateUser(user);
+                answerCallbackQuery(callbackQueryId);
+                return;
+            }
+
+            // Обрабатываем ответ через сервис опроса
+            logger.info("Вызываем surveyService.processAnswer с ответом: {}", callbackData);
+            surveyService.processAnswer(user, callbackData);
         
-        logger.info("После обработки callback: индекс={}, завершен={}", 
-                   user.getCurrentQuestionIndex(), surveyService.isSurveyCompleted(user));
+            logger.info("После обработки callback: индекс={}, завершен={}", 
+                       user.getCurrentQuestionIndex(), surveyService.isSurveyCompleted(user));
         
-        // Проверяем, завершен ли опрос
-        if (surveyService.isSurveyCompleted(user)) {
-            logger.info("Опрос завершен для пользователя {}, показываем рекомендации", user.getUsername());
-            completeSurvey(user);
-        } else {
-            logger.info("Отправляем следующий вопрос для пользователя {}", user.getUsername());
-            sendNextQuestion(user);
-        }
+            // Проверяем, завершен ли опрос
+            if (surveyService.isSurveyCompleted(user)) {
+                logger.info("Опрос завершен для пользователя {}, показываем рекомендации", user.getUsername());
+                completeSurvey(user);
+            } else {
+                logger.info("Отправляем следующий вопрос для пользователя {}", user.getUsername());
+                sendNextQuestion(user);
+            }
 
-        logger.info("Обновляем пользователя в базе данных");
-        userService.updateUser(user);
+            logger.info("Обновляем пользователя в базе данных");
+            userService.updateUser(user);
         
-        // Отвечаем на callback query, чтобы убрать "часики" у кнопки
-        logger.info("Отвечаем на callback query с ID: {}", callbackQueryId);
-        answerCallbackQuery(callbackQueryId);
+            // Отвечаем на callback query, чтобы убрать "часики" у кнопки
+            logger.info("Отвечаем на callback query с ID: {}", callbackQueryId);
+            answerCallbackQuery(callbackQueryId);
         
-        logger.info("=== КОНЕЦ ОБРАБОТКИ CALLBACK QUERY ===");
+            logger.info("=== КОНЕЦ ОБРАБОТКИ CALLBACK QUERY ===");
+        } finally {
+            userService.releaseUser(user);
+        }
     }
 
     private void handleStartCommand(TelegramUser user) {
@@ -204,7 +230,6 @@ public class TelegramWebhookController {
             user.setSurveyCompleted(false);
             user.setCurrentQuestionIndex(0);
             user.setSelectedTopic(null);
-            user.setAnswers(new HashMap<>());
 
             logger.info("Состояние пользователя {} сброшено: {}", user.getUsername(), user.getState());
 
@@ -218,14 +243,7 @@ public class TelegramWebhookController {
             
             sendMessage(user.getChatId(), welcomeMessage);
             
-            // Небольшая задержка перед отправкой первого вопроса
-            try {
-                Thread.sleep(500);
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-            }
-            
-            // Отправляем первый вопрос
+            // Отправляем первый вопрос (клиент доставляет сообщения чата строго по порядку)
             sendNextQuestion(user);
             
         } catch (Exception e) {
@@ -256,7 +274,6 @@ public class TelegramWebhookController {
         user.setSurveyCompleted(false);
         user.setCurrentQuestionIndex(0);
         user.setSelectedTopic(null);
-        user.setAnswers(new HashMap<>());
 
         logger.info("Состояние пользователя {} сброшено командой /reset: {}", user.getUsername(), user.getState());
 
@@ -316,6 +333,10 @@ public class TelegramWebhookController {
         logger.info("Обработка ответа пользователя {}: '{}', текущий индекс={}", 
                    user.getUsername(), answer, user.getCurrentQuestionIndex());
         
+        if (restartIfQuestionsChanged(user)) {
+            return;
+        }
+
         // Обрабатываем ответ через сервис опроса
         surveyService.processAnswer(user, answer);
         
@@ -333,6 +354,16 @@ public class TelegramWebhookController {
 
 
 
+    // Вопросы темы поменялись, пока опрос был не закончен: прежние ответы не сопоставить, начинаем заново
+    private boolean restartIfQuestionsChanged(TelegramUser user) {
+        if (!surveyService.restartIfQuestionsChanged(user)) {
+            return false;
+        }
+        sendMessage(user.getChatId(), "🔄 *Вопросы опроса обновились.*\n\nДавайте начнем заново с выбора темы здоровья.");
+        sendNextQuestion(user);
+        return true;
+    }
+
     private void sendNextQuestion(TelegramUser user) {
         logger.info("=== НАЧАЛО ОТПРАВКИ СЛЕДУЮЩЕГО ВОПРОСА ===");
         logger.info("Получаем следующий вопрос для пользователя: {}", user.getUsername());
@@ -387,79 +418,18 @@ public class TelegramWebhookController {
                 result.getAdditionalRecommendations() != null ? result.getAdditionalRecommendations().size() : 0
             );
             
-            // 1. Отправляем заголовок основных рекомендаций
-            String mainRecommendationsHeader = "*Основные рекомендации*\nСовместимы, безопасны, рассчитаны на совместный приём — рекомендуем принимать курсом 3 месяца";
-            sendMessage(user.getChatId(), mainRecommendationsHeader);
+            // Кнопки "Подробнее" всех товаров уходят одним сообщением вместе с финальной клавиатурой
+            List<List<InlineKeyboardButton>> keyboardRows = new ArrayList<>();
             
-            // 2. Отправляем альбом из 3 фото основных БАДов
-            if (result.getMainRecommendations() != null && !result.getMainRecommendations().isEmpty()) {
-                logger.info("Отправляем {} основных рекомендаций", result.getMainRecommendations().size());
-                for (int i = 0; i < Math.min(3, result.getMainRecommendations().size()); i++) {
-                    ScoreCalculationService.SupplementWithScore supplementWithScore = result.getMainRecommendations().get(i);
-                    Supplement supplement = supplementWithScore.getSupplement();
-                    
-                    logger.info("Обрабатываем основную рекомендацию {}: {}", i, supplement.getName());
-                    logger.info("ImageUrl: {}, ProductUrl: {}", supplement.getImageUrl(), supplement.getProductUrl());
-                    
-                    // Формируем подпись с Markdown
-                    String caption = String.format("*%s*\n\n%s", 
-                        supplement.getName(),
-                        supplement.getDescription() != null ? supplement.getDescription() : "Описание отсутствует"
-                    );
-                    
-                    // Отправляем фото с inline кнопкой "Подробнее"
-                    String buttonUrl = supplement.getProductUrl() != null ? supplement.getProductUrl() : "https://soloways.tilda.ws";
-                    if (supplement.getImageUrl() != null && !supplement.getImageUrl().isEmpty()) {
-                        logger.info("Отправляем фото для {}", supplement.getName());
-                        sendPhotoWithInlineButton(user.getChatId(), supplement.getImageUrl(), caption, "Подробнее", buttonUrl);
-                    } else {
-                        logger.info("Отправляем текст без фото для {}", supplement.getName());
-                        // Если нет фото, отправляем только текст с кнопкой
-                        sendMessageWithInlineKeyboard(user.getChatId(), caption, 
-                            createInlineButtonKeyboard("Подробнее", buttonUrl));
-                    }
-                }
-            } else {
-                logger.info("Основные рекомендации отсутствуют");
-            }
+            // 1. Альбом из 3 фото основных БАДов, заголовок - в подписи первого фото
+            String mainRecommendationsHeader = "*Основные рекомендации*\nСовместимы, безопасны, рассчитаны на совместный приём — рекомендуем принимать курсом 3 месяца";
+            sendRecommendationsAlbum(user.getChatId(), mainRecommendationsHeader, result.getMainRecommendations(), 3, keyboardRows);
             
-            // 3. Отправляем заголовок дополнительных рекомендаций
+            // 2. Альбом из 2 фото дополнительных БАДов
             String additionalRecommendationsHeader = "*Дополнительные рекомендации*\nЭти добавки безопасно сочетаются с основными и усиливают их действие: можете подключать их вместе или позже, рекомендуемый курс — 3 месяца";
-            sendMessage(user.getChatId(), additionalRecommendationsHeader);
+            sendRecommendationsAlbum(user.getChatId(), additionalRecommendationsHeader, result.getAdditionalRecommendations(), 2, keyboardRows);
             
-            // 4. Отправляем альбом из 2 фото дополнительных БАДов
-            if (result.getAdditionalRecommendations() != null && !result.getAdditionalRecommendations().isEmpty()) {
-                logger.info("Отправляем {} дополнительных рекомендаций", result.getAdditionalRecommendations().size());
-                for (int i = 0; i < Math.min(2, result.getAdditionalRecommendations().size()); i++) {
-                    ScoreCalculationService.SupplementWithScore supplementWithScore = result.getAdditionalRecommendations().get(i);
-                    Supplement supplement = supplementWithScore.getSupplement();
-                    
-                    logger.info("Обрабатываем дополнительную рекомендацию {}: {}", i, supplement.getName());
-                    logger.info("ImageUrl: {}, ProductUrl: {}", supplement.getImageUrl(), supplement.getProductUrl());
-                    
-                    // Формируем подпись с Markdown
-                    String caption = String.format("*%s*\n\n%s", 
-                        supplement.getName(),
-                        supplement.getDescription() != null ? supplement.getDescription() : "Описание отсутствует"
-                    );
-                    
-                    // Отправляем фото с inline кнопкой "Подробнее"
-                    String buttonUrl = supplement.getProductUrl() != null ? supplement.getProductUrl() : "https://soloways.tilda.ws";
-                    if (supplement.getImageUrl() != null && !supplement.getImageUrl().isEmpty()) {
-                        logger.info("Отправляем фото для {}", supplement.getName());
-                        sendPhotoWithInlineButton(user.getChatId(), supplement.getImageUrl(), caption, "Подробнее", buttonUrl);
-                    } else {
-                        logger.info("Отправляем текст без фото для {}", supplement.getName());
-                        // Если нет фото, отправляем только текст с кнопкой
-                        sendMessageWithInlineKeyboard(user.getChatId(), caption, 
-                            createInlineButtonKeyboard("Подробнее", buttonUrl));
-                    }
-                }
-            } else {
-                logger.info("Дополнительные рекомендации отсутствуют");
-            }
-            
-            // 5. Отправляем финальное сообщение с кнопками
+            // 3. Отправляем финальное сообщение со ссылками на товары и кнопками
             String finalMessage = "💡 *Совет:* Проконсультируйтесь с врачом перед приемом любых добавок.\n\n" + 
                                 "Данные рекомендации не являются заменой консультации с врачом. При серьёзных симптомах — рекомендуем обратиться к специалисту.\n\n" +
                                 "🔄 Хотите пройти опрос заново?\n\n" +
@@ -467,9 +437,8 @@ public class TelegramWebhookController {
             
             // Создаем клавиатуру с кнопками
             InlineKeyboardMarkup keyboard = new InlineKeyboardMarkup();
-            List<List<InlineKeyboardButton>> keyboardRows = new ArrayList<>();
             
-            // Первый ряд: кнопка нового опроса
+            // Кнопка нового опроса
             List<InlineKeyboardButton> row1 = new ArrayList<>();
             InlineKeyboardButton startButton = new InlineKeyboardButton();
             startButton.setText("🔄 Начать новый опрос");
@@ -477,7 +446,7 @@ public class TelegramWebhookController {
             row1.add(startButton);
             keyboardRows.add(row1);
             
-            // Второй ряд: кнопка генетики
+            // Кнопка генетики
             List<InlineKeyboardButton> row2 = new ArrayList<>();
             InlineKeyboardButton geneticsButton = new InlineKeyboardButton();
             geneticsButton.setText("🧬 Хочу точнее");
@@ -487,7 +456,7 @@ public class TelegramWebhookController {
             
             keyboard.setKeyboard(keyboardRows);
             
-            sendMessageWithKeyboard(user.getChatId(), finalMessage, keyboard);
+            sendMessageWithInlineKeyboard(user.getChatId(), finalMessage, keyboard);
             
         } catch (Exception e) {
             logger.error("Ошибка при получении рекомендаций для пользователя {}: {}", user.getUsername(), e.getMessage(), e);
@@ -517,21 +486,6 @@ public class TelegramWebhookController {
         return keyboard;
     }
     
-    private InlineKeyboardMarkup createInlineButtonKeyboard(String buttonText, String buttonUrl) {
-        InlineKeyboardMarkup keyboard = new InlineKeyboardMarkup();
-        List<List<InlineKeyboardButton>> keyboardRows = new ArrayList<>();
-        
-        List<InlineKeyboardButton> row = new ArrayList<>();
-        InlineKeyboardButton button = new InlineKeyboardButton();
-        button.setText(buttonText);
-        button.setUrl(buttonUrl);
-        row.add(button);
-        keyboardRows.add(row);
-        
-        keyboard.setKeyboard(keyboardRows);
-        return keyboard;
-    }
-
     private ReplyKeyboardMarkup createAnswerKeyboard(String... options) {
         ReplyKeyboardMarkup keyboard = new ReplyKeyboardMarkup();
         keyboard.setResizeKeyboard(true);
@@ -572,295 +526,70 @@ public class TelegramWebhookController {
 
 
 
-    private void answerCallbackQuery(String callbackData) {
-        try {
-            String url = "https://api.telegram.org/bot" + botConfig.getBotToken() + "/answerCallbackQuery";
-            String jsonBody = String.format(
-                "{\"callback_query_id\":\"%s\"}",
-                callbackData
-            );
-
-            logger.info("Отвечаем на callback query: {}", callbackData);
-
-            String response = webClient.post()
-                    .uri(url)
-                    .contentType(org.springframework.http.MediaType.APPLICATION_JSON)
-                    .bodyValue(jsonBody)
-                    .retrieve()
-                    .bodyToMono(String.class)
-                    .block();
-            
-            if (response != null) {
-                logger.info("✅ Ответ на callback query отправлен: {}", response);
-            } else {
-                logger.error("❌ Получен пустой ответ при ответе на callback query");
-            }
-
-        } catch (Exception e) {
-            logger.error("Error answering callback query: {}", e.getMessage(), e);
-        }
+    private void answerCallbackQuery(String callbackQueryId) {
+        logger.info("Отвечаем на callback query: {}", callbackQueryId);
+        telegramApiClient.answerCallbackQuery(callbackQueryId);
     }
 
     private void sendMessage(Long chatId, String text) {
-        sendMessageWithRetry(chatId, text, 3);
+        logger.info("Отправка сообщения в чат {}: {}", chatId, text);
+        telegramApiClient.sendMessage(chatId, text);
     }
-    
-    private void sendMessageWithRetry(Long chatId, String text, int maxRetries) {
-        for (int attempt = 1; attempt <= maxRetries; attempt++) {
-            try {
-                String url = "https://api.telegram.org/bot" + botConfig.getBotToken() + "/sendMessage";
-                String jsonBody = String.format(
-                    "{\"chat_id\":\"%s\",\"text\":\"%s\",\"parse_mode\":\"Markdown\"}",
-                    chatId, text.replace("\"", "\\\"").replace("\n", "\\n")
-                );
-
-                logger.info("Отправка сообщения в чат {} (попытка {}/{}): {}", chatId, attempt, maxRetries, text);
-
-                String response = webClient.post()
-                        .uri(url)
-                        .contentType(org.springframework.http.MediaType.APPLICATION_JSON)
-                        .bodyValue(jsonBody)
-                        .retrieve()
-                        .bodyToMono(String.class)
-                        .block();
-                
-                if (response != null) {
-                    logger.info("✅ Сообщение отправлено в чат {} (попытка {}): {}", chatId, attempt, response);
-                    return; // Успешно отправлено
-                } else {
-                    logger.warn("⚠️ Получен пустой ответ при отправке сообщения в чат {} (попытка {})", chatId, attempt);
-                }
 
-            } catch (Exception e) {
-                logger.error("❌ Ошибка отправки сообщения в чат {} (попытка {}): {}", chatId, attempt, e.getMessage());
-                
-                if (attempt == maxRetries) {
-                    logger.error("❌ Не удалось отправить сообщение в чат {} после {} попыток", chatId, maxRetries);
-                } else {
-                    // Небольшая задержка перед повторной попыткой
-                    try {
-                        Thread.sleep(1000 * attempt); // 1s, 2s, 3s
-                    } catch (InterruptedException ie) {
-                        Thread.currentThread().interrupt();
-                        break;
-                    }
-                }
-            }
-        }
-    }
-
-    private void sendPhoto(Long chatId, String imagePath, String caption) {
-        try {
-            String url = "https://api.telegram.org/bot" + botConfig.getBotToken() + "/sendPhoto";
-            
-            String jsonBody = String.format(
-                "{\"chat_id\":\"%s\",\"photo\":\"%s\",\"caption\":\"%s\"}",
-                chatId, imagePath, caption.replace("\"", "\\\"")
-            );
-
-            logger.info("Отправка фотографии в чат {}: {}", chatId, caption);
-            logger.info("URL: {}", url);
-            logger.info("JSON: {}", jsonBody);
-
-            String response = webClient.post()
-                    .uri(url)
-                    .contentType(org.springframework.http.MediaType.APPLICATION_JSON)
-                    .bodyValue(jsonBody)
-                    .retrieve()
-                    .bodyToMono(String.class)
-                    .block();
-            
-            if (response != null) {
-                logger.info("✅ Фотография отправлена в чат {}: {}", chatId, response);
+    /**
+     * Отправляет рекомендации одним альбомом и добавляет в keyboardRows кнопки "Подробнее".
+     * БАДы без фото отправляются текстом; если фото нет совсем, заголовок уходит отдельным сообщением.
+     */
+    private void sendRecommendationsAlbum(Long chatId, String header, List<ScoreCalculationService.SupplementWithScore> recommendations,
+                                          int maxCount, List<List<InlineKeyboardButton>> keyboardRows) {
+        List<TelegramApiClient.InputPhoto> photos = new ArrayList<>();
+        List<String> textOnly = new ArrayList<>();
+        
+        int count = recommendations != null ? Math.min(maxCount, recommendations.size()) : 0;
+        logger.info("Отправляем {} рекомендаций альбомом в чат {}", count, chatId);
+        for (int i = 0; i < count; i++) {
+            Supplement supplement = recommendations.get(i).getSupplement();
+            String description = supplement.getDescription() != null ? supplement.getDescription() : "Описание отсутствует";
+            
+            if (supplement.getImageUrl() != null && !supplement.getImageUrl().isEmpty()) {
+                // Заголовок раздела - в подписи первого фото альбома
+                String prefix = photos.isEmpty() ? header + "\n\n" : "";
+                photos.add(new TelegramApiClient.InputPhoto(supplement.getImageUrl(),
+                        fitCaption(prefix + "*" + supplement.getName() + "*\n\n", description), supplement.getCode()));
             } else {
-                logger.error("❌ Получен пустой ответ при отправке фотографии в чат {}", chatId);
+                textOnly.add(String.format("*%s*\n\n%s", supplement.getName(), description));
             }
-
-        } catch (Exception e) {
-            logger.error("Error sending photo to {}: {}", chatId, e.getMessage(), e);
-        }
-    }
-    
-    private void sendPhotoWithInlineButton(Long chatId, String imagePath, String caption, String buttonText, String buttonUrl) {
-        try {
-            String url = "https://api.telegram.org/bot" + botConfig.getBotToken() + "/sendPhoto";
-            
-            // Создаем inline кнопку
-            String keyboardJson = String.format(
-                "\"reply_markup\":{\"inline_keyboard\":[[{\"text\":\"%s\",\"url\":\"%s\"}]]}",
-                buttonText, buttonUrl
-            );
             
-            String jsonBody = String.format(
-                "{\"chat_id\":\"%s\",\"photo\":\"%s\",\"caption\":\"%s\",\"parse_mode\":\"Markdown\",%s}",
-                chatId, imagePath, caption.replace("\"", "\\\""), keyboardJson
-            );
-
-            logger.info("Отправка фотографии с inline кнопкой в чат {}: {}", chatId, caption);
-            logger.info("URL: {}", url);
-            logger.info("JSON: {}", jsonBody);
-
-            String response = webClient.post()
-                    .uri(url)
-                    .contentType(org.springframework.http.MediaType.APPLICATION_JSON)
-                    .bodyValue(jsonBody)
-                    .retrieve()
-                    .bodyToMono(String.class)
-                    .block();
-            
-            if (response != null) {
-                logger.info("✅ Фотография с кнопкой отправлена в чат {}: {}", chatId, response);
-            } else {
-                logger.error("❌ Получен пустой ответ при отправке фотографии с кнопкой в чат {}", chatId);
-            }
-
-        } catch (Exception e) {
-            logger.error("Error sending photo with inline button to {}: {}", chatId, e.getMessage(), e);
+            String buttonUrl = supplement.getProductUrl() != null ? supplement.getProductUrl() : "https://soloways.tilda.ws";
+            List<InlineKeyboardButton> row = new ArrayList<>();
+            InlineKeyboardButton button = new InlineKeyboardButton();
+            button.setText("Подробнее: " + supplement.getName());
+            button.setUrl(buttonUrl);
+            row.add(button);
+            keyboardRows.add(row);
+        }
+        
+        if (photos.isEmpty()) {
+            sendMessage(chatId, header);
+        } else {
+            telegramApiClient.sendMediaGroup(chatId, photos);
+        }
+        for (String text : textOnly) {
+            sendMessage(chatId, text);
         }
     }
-    
-
-
-    private void sendMessageWithInlineKeyboard(Long chatId, String text, InlineKeyboardMarkup keyboard) {
-        try {
-            logger.info("=== НАЧАЛО ОТПРАВКИ СООБЩЕНИЯ С INLINE КЛАВИАТУРОЙ ===");
-            String url = "https://api.telegram.org/bot" + botConfig.getBotToken() + "/sendMessage";
-            
-            // Создаем JSON для inline клавиатуры
-            StringBuilder keyboardJson = new StringBuilder();
-            keyboardJson.append("\"reply_markup\":{");
-            keyboardJson.append("\"inline_keyboard\":[");
-            
-            List<List<InlineKeyboardButton>> keyboardButtons = keyboard.getKeyboard();
-            logger.info("Количество рядов кнопок: {}", keyboardButtons.size());
-            
-            // Добавляем кнопки в JSON
-            for (int i = 0; i < keyboardButtons.size(); i++) {
-                keyboardJson.append("[");
-                List<InlineKeyboardButton> row = keyboardButtons.get(i);
-                logger.info("Ряд {}: {} кнопок", i, row.size());
-                for (int j = 0; j < row.size(); j++) {
-                    InlineKeyboardButton button = row.get(j);
-                    logger.info("Кнопка {}: текст='{}', callback_data='{}'", j, button.getText(), button.getCallbackData());
-                    keyboardJson.append("{");
-                    keyboardJson.append("\"text\":\"").append(button.getText().replace("\"", "\\\"")).append("\",");
-                    keyboardJson.append("\"callback_data\":\"").append(button.getCallbackData().replace("\"", "\\\"")).append("\"");
-                    keyboardJson.append("}");
-                    if (j < row.size() - 1) {
-                        keyboardJson.append(",");
-                    }
-                }
-                keyboardJson.append("]");
-                if (i < keyboardButtons.size() - 1) {
-                    keyboardJson.append(",");
-                }
-            }
-            
-            keyboardJson.append("]}");
-            
-            String jsonBody = String.format(
-                "{\"chat_id\":\"%s\",\"text\":\"%s\",\"parse_mode\":\"Markdown\",%s}",
-                chatId, 
-                text.replace("\"", "\\\"").replace("\n", "\\n"),
-                keyboardJson.toString()
-            );
-
-            logger.info("Отправка сообщения с inline клавиатурой в чат {}: {}", chatId, text);
-            logger.info("URL: {}", url);
-            logger.info("JSON: {}", jsonBody);
-
-            String response = webClient.post()
-                    .uri(url)
-                    .contentType(org.springframework.http.MediaType.APPLICATION_JSON)
-                    .bodyValue(jsonBody)
-                    .retrieve()
-                    .bodyToMono(String.class)
-                    .block();
-            
-            if (response != null) {
-                logger.info("✅ Сообщение с inline клавиатурой отправлено в чат {}: {}", chatId, response);
-                logger.info("=== КОНЕЦ ОТПРАВКИ СООБЩЕНИЯ С INLINE КЛАВИАТУРОЙ ===");
-            } else {
-                logger.error("❌ Получен пустой ответ при отправке сообщения с inline клавиатурой в чат {}", chatId);
-            }
 
-        } catch (Exception e) {
-            logger.error("Error sending message with inline keyboard to {}: {}", chatId, e.getMessage(), e);
-            logger.info("=== КОНЕЦ ОТПРАВКИ СООБЩЕНИЯ С INLINE КЛАВИАТУРОЙ (ИСКЛЮЧЕНИЕ) ===");
+    // Подпись фото в Telegram ограничена 1024 символами: при необходимости обрезаем описание
+    private static String fitCaption(String title, String description) {
+        int available = MAX_CAPTION_LENGTH - title.length();
+        if (description.length() <= available) {
+            return title + description;
         }
+        return title + description.substring(0, Math.max(0, available - 1)) + "…";
     }
 
-
-
-    private void sendMessageWithKeyboard(Long chatId, String text, InlineKeyboardMarkup keyboard) {
-        try {
-            String url = "https://api.telegram.org/bot" + botConfig.getBotToken() + "/sendMessage";
-            
-            // Создаем JSON для inline клавиатуры
-            StringBuilder keyboardJson = new StringBuilder();
-            keyboardJson.append("\"reply_markup\":{");
-            keyboardJson.append("\"inline_keyboard\":[");
-            
-            List<List<InlineKeyboardButton>> rows = keyboard.getKeyboard();
-            
-            for (int i = 0; i < rows.size(); i++) {
-                List<InlineKeyboardButton> row = rows.get(i);
-                keyboardJson.append("[");
-                
-                for (int j = 0; j < row.size(); j++) {
-                    InlineKeyboardButton button = row.get(j);
-                    keyboardJson.append("{");
-                    keyboardJson.append("\"text\":\"").append(button.getText().replace("\"", "\\\"")).append("\",");
-                    
-                    // Проверяем тип кнопки: URL или callback_data
-                    if (button.getUrl() != null && !button.getUrl().isEmpty()) {
-                        keyboardJson.append("\"url\":\"").append(button.getUrl().replace("\"", "\\\"")).append("\"");
-                    } else if (button.getCallbackData() != null && !button.getCallbackData().isEmpty()) {
-                        keyboardJson.append("\"callback_data\":\"").append(button.getCallbackData().replace("\"", "\\\"")).append("\"");
-                    }
-                    
-                    keyboardJson.append("}");
-                    
-                    if (j < row.size() - 1) {
-                        keyboardJson.append(",");
-                    }
-                }
-                
-                keyboardJson.append("]");
-                if (i < rows.size() - 1) {
-                    keyboardJson.append(",");
-                }
-            }
-            
-            keyboardJson.append("]}");
-            
-            String jsonBody = String.format(
-                "{\"chat_id\":\"%s\",\"text\":\"%s\",\"parse_mode\":\"Markdown\",%s}",
-                chatId, 
-                text.replace("\"", "\\\"").replace("\n", "\\n"),
-                keyboardJson.toString()
-            );
-
-            logger.info("Отправка сообщения с inline клавиатурой в чат {}: {}", chatId, text);
-            logger.info("URL: {}", url);
-            logger.info("JSON: {}", jsonBody);
-
-            String response = webClient.post()
-                    .uri(url)
-                    .contentType(org.springframework.http.MediaType.APPLICATION_JSON)
-                    .bodyValue(jsonBody)
-                    .retrieve()
-                    .bodyToMono(String.class)
-                    .block();
-            
-            if (response != null) {
-                logger.info("✅ Сообщение с inline клавиатурой отправлено в чат {}: {}", chatId, response);
-            } else {
-                logger.error("❌ Получен пустой ответ при отправке сообщения с inline клавиатурой в чат {}", chatId);
-            }
-
-        } catch (Exception e) {
-            logger.error("Error sending message with inline keyboard to {}: {}", chatId, e.getMessage(), e);
-        }
+    private void sendMessageWithInlineKeyboard(Long chatId, String text, InlineKeyboardMarkup keyboard) {
+        logger.info("Отправка сообщения с inline клавиатурой в чат {}: {}", chatId, text);
+        telegramApiClient.sendMessage(chatId, text, keyboard);
     }
 }
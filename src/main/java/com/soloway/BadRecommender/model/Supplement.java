@@ -37,6 +37,25 @@ public class Supplement {
         this.active = active;
     }
 
+    /**
+     * Копия добавки: объекты из снимка данных общие для всех сервисов, менять их нельзя
+     */
+    public Supplement(Supplement other) {
+        this.id = other.id;
+        this.code = other.code;
+        this.name = other.name;
+        this.description = other.description;
+        this.category = other.category;
+        this.tags = other.tags;
+        this.active = other.active;
+        this.effects = other.effects;
+        this.rating = other.rating;
+        this.productUrl = other.productUrl;
+        this.imageUrl = other.imageUrl;
+        this.price = other.price;
+        this.type = other.type;
+    }
+
     public Long getId() { return id; }
     public String getCode() { return code; }
     public String getName() { return name; }
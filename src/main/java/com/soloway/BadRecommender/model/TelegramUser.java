@@ -1,24 +1,35 @@
 package com.soloway.BadRecommender.model;
 
+import java.time.Instant;
 import java.time.LocalDateTime;
-import java.util.HashMap;
-import java.util.Map;
+import java.time.ZoneId;
+import java.util.*;
 
 /**
- * Модель пользователя Telegram для хранения состояния опроса
+ * Модель пользователя Telegram для хранения состояния опроса.
+ * Состояние хранится компактно: ответы - номера вариантов в byte[] по индексу вопроса,
+ * время активности - секунды эпохи, тема - ссылка на строку из кэша тем (общая для всех сессий).
  */
 public class TelegramUser {
-    private Long chatId;
+
+    // В byte хранится номер варианта + 1 (0 - ответа нет), беззнаково: до 255 вариантов
+    private static final int MAX_OPTION_INDEX = 254;
+
+    private final long chatId;
     private String username;
     private String firstName;
     private String lastName;
     private UserState state;
     private int currentQuestionIndex;
-    private Map<Integer, String> answers;
-    private LocalDateTime lastActivity;
+    private byte[] answerOptions;
+    // Ответы, которых нет среди вариантов вопроса (введены текстом); создается при первой необходимости
+    private Map<Integer, String> textAnswers;
+    private int lastActivity;
     private String email;
     private boolean surveyCompleted;
     private String selectedTopic;
+    // Хэш вопросов темы на момент выбора: номера вариантов имеют смысл только для этих вопросов
+    private int questionsHash;
 
     public enum UserState {
         START,
@@ -31,8 +42,8 @@ public class TelegramUser {
         this.chatId = chatId;
         this.state = UserState.START;
         this.currentQuestionIndex = 0;
-        this.answers = new HashMap<>();
-        this.lastActivity = LocalDateTime.now();
+        this.answerOptions = new byte[0];
+        touch();
         this.surveyCompleted = false;
     }
 
@@ -41,10 +52,6 @@ public class TelegramUser {
         return chatId;
     }
 
-    public void setChatId(Long chatId) {
-        this.chatId = chatId;
-    }
-
     public String getUsername() {
         return username;
     }
@@ -85,20 +92,19 @@ public class TelegramUser {
         this.currentQuestionIndex = currentQuestionIndex;
     }
 
-    public Map<Integer, String> getAnswers() {
-        return answers;
+    /**
+     * Время последней активности в секундах эпохи
+     */
+    public int getLastActivityEpochSecond() {
+        return lastActivity;
     }
 
-    public void setAnswers(Map<Integer, String> answers) {
-        this.answers = answers;
+    public void setLastActivityEpochSecond(int lastActivity) {
+        this.lastActivity = lastActivity;
     }
 
     public LocalDateTime getLastActivity() {
-        return lastActivity;
-    }
-
-    public void setLastActivity(LocalDateTime lastActivity) {
-        this.lastActivity = lastActivity;
+        return LocalDateTime.ofInstant(Instant.ofEpochSecond(lastActivity), ZoneId.systemDefault());
     }
 
     public String getEmail() {
@@ -125,26 +131,146 @@ public class TelegramUser {
         this.selectedTopic = selectedTopic;
     }
 
+    public int getQuestionsHash() {
+        return questionsHash;
+    }
+
+    public void setQuestionsHash(int questionsHash) {
+        this.questionsHash = questionsHash;
+    }
+
     // Вспомогательные методы
+
+    /**
+     * Сохраняет ответ номером варианта вопроса
+     */
+    public void addAnswerOption(int questionIndex, int optionIndex) {
+        if (optionIndex < 0 || optionIndex > MAX_OPTION_INDEX) {
+            throw new IllegalArgumentException("Номер варианта вне диапазона: " + optionIndex);
+        }
+        if (questionIndex >= answerOptions.length) {
+            answerOptions = Arrays.copyOf(answerOptions, Math.max(questionIndex + 1, answerOptions.length + 4));
+        }
+        answerOptions[questionIndex] = (byte) (optionIndex + 1);
+        if (textAnswers != null) {
+            textAnswers.remove(questionIndex);
+        }
+        touch();
+    }
+
+    /**
+     * Сохраняет ответ текстом (если его нет среди вариантов вопроса)
+     */
     public void addAnswer(int questionIndex, String answer) {
-        this.answers.put(questionIndex, answer);
-        this.lastActivity = LocalDateTime.now();
+        if (questionIndex < answerOptions.length) {
+            answerOptions[questionIndex] = 0;
+        }
+        if (textAnswers == null) {
+            textAnswers = new HashMap<>(4);
+        }
+        textAnswers.put(questionIndex, answer);
+        touch();
+    }
+
+    /**
+     * Ответ на вопрос: вариант из options по сохраненному номеру либо текстовый ответ; null - ответа нет
+     */
+    public String getAnswer(int questionIndex, List<String> options) {
+        if (questionIndex < answerOptions.length && answerOptions[questionIndex] != 0) {
+            int optionIndex = (answerOptions[questionIndex] & 0xFF) - 1;
+            if (options != null && optionIndex < options.size()) {
+                return options.get(optionIndex);
+            }
+        }
+        return textAnswers != null ? textAnswers.get(questionIndex) : null;
+    }
+
+    /**
+     * Номера вариантов по индексам вопросов (номер + 1, 0 - ответа нет); для сериализации
+     */
+    public byte[] getAnswerOptions() {
+        return answerOptions;
+    }
+
+    public void setAnswerOptions(byte[] answerOptions) {
+        this.answerOptions = answerOptions != null ? answerOptions : new byte[0];
+    }
+
+    /**
+     * Текстовые ответы по индексам вопросов; для сериализации
+     */
+    public Map<Integer, String> getTextAnswers() {
+        return textAnswers != null ? textAnswers : Map.of();
+    }
+
+    public void setTextAnswers(Map<Integer, String> textAnswers) {
+        this.textAnswers = textAnswers == null || textAnswers.isEmpty() ? null : new HashMap<>(textAnswers);
     }
 
     public void nextQuestion() {
         this.currentQuestionIndex++;
-        this.lastActivity = LocalDateTime.now();
+        touch();
     }
 
     public void resetSurvey() {
         this.currentQuestionIndex = 0;
-        this.answers.clear();
+        this.answerOptions = new byte[0];
+        this.textAnswers = null;
+        this.questionsHash = 0;
         this.state = UserState.START;
         this.surveyCompleted = false;
-        this.lastActivity = LocalDateTime.now();
+        touch();
+    }
+
+    /**
+     * Отмечает активность пользователя
+     */
+    public void touch() {
+        this.lastActivity = (int) (System.currentTimeMillis() / 1000);
     }
 
     public boolean isActive() {
-        return LocalDateTime.now().minusMinutes(30).isBefore(this.lastActivity);
+        return System.currentTimeMillis() / 1000 - lastActivity < 30 * 60;
+    }
+
+    /**
+     * Независимая копия сессии (для записи на диск, пока оригинал может меняться)
+     */
+    public TelegramUser copy() {
+        TelegramUser copy = new TelegramUser(chatId);
+        copy.username = username;
+        copy.firstName = firstName;
+        copy.lastName = lastName;
+        copy.state = state;
+        copy.currentQuestionIndex = currentQuestionIndex;
+        copy.answerOptions = answerOptions.clone();
+        copy.textAnswers = textAnswers != null ? new HashMap<>(textAnswers) : null;
+        copy.lastActivity = lastActivity;
+        copy.email = email;
+        copy.surveyCompleted = surveyCompleted;
+        copy.selectedTopic = selectedTopic;
+        copy.questionsHash = questionsHash;
+        return copy;
+    }
+
+    /**
+     * Приблизительный размер сессии в куче (для метрик), в байтах
+     */
+    public int estimatedSizeBytes() {
+        // Заголовок объекта и поля + массив ответов
+        int size = 64 + 16 + answerOptions.length;
+        size += stringSize(username) + stringSize(firstName) + stringSize(lastName) + stringSize(email);
+        if (textAnswers != null) {
+            size += 64;
+            for (String answer : textAnswers.values()) {
+                size += 48 + stringSize(answer);
+            }
+        }
+        return size;
+    }
+
+    // Строка: объект + массив; кириллица хранится по 2 байта на символ
+    private static int stringSize(String value) {
+        return value == null ? 0 : 40 + 2 * value.length();
     }
 }
@@ -1,105 +1,169 @@
 package com.soloway.BadRecommender.repository;
 
 import com.soloway.BadRecommender.model.Supplement;
+import com.soloway.BadRecommender.service.GoogleSheetsDataService;
 import com.soloway.BadRecommender.service.GoogleSheetsService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Repository;
 
 import java.io.IOException;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
 
 @Repository
 public class GoogleSheetsSupplementRepository implements SupplementRepositoryInterface {
 
+    // Длина n-грамм индекса названий: индексируются все подстроки длиной от 1 до NAME_GRAM
+    private static final int NAME_GRAM = 3;
+
     private final GoogleSheetsService googleSheetsService;
-    private List<Supplement> supplementsCache = new ArrayList<>();
-    private long lastCacheUpdate = 0;
-    private static final long CACHE_TTL = 5 * 60 * 1000; // 5 минут
+    private final GoogleSheetsDataService googleSheetsDataService;
+
+    // Неизменяемый снимок кэша: читатели берут его без блокировок
+    private final AtomicReference<CacheSnapshot> cache = new AtomicReference<>();
+    // Обновление выполняет только один поток, остальные получают прежний снимок
+    private final ReentrantLock refreshLock = new ReentrantLock();
 
     @Autowired
-    public GoogleSheetsSupplementRepository(GoogleSheetsService googleSheetsService) {
+    public GoogleSheetsSupplementRepository(GoogleSheetsService googleSheetsService,
+                                            GoogleSheetsDataService googleSheetsDataService) {
         this.googleSheetsService = googleSheetsService;
+        this.googleSheetsDataService = googleSheetsDataService;
     }
 
     /**
-     * Обновляет кэш данных из Google Sheets
+     * Возвращает актуальный снимок кэша. Если снимок данных Google Sheets сменился,
+     * кэш пересобирает один поток; пока он работает, остальные получают прежний снимок.
+     * Ждать приходится только при самой первой загрузке.
      */
-    private void refreshCacheIfNeeded() {
-        long currentTime = System.currentTimeMillis();
-        if (currentTime - lastCacheUpdate > CACHE_TTL) {
-            try {
-                System.out.println("🔄 Обновляем кэш из Google Sheets...");
-                supplementsCache = googleSheetsService.loadSupplements();
-                lastCacheUpdate = currentTime;
-                System.out.println("✅ Кэш обновлен: " + supplementsCache.size() + " добавок");
-            } catch (IOException e) {
-                System.err.println("❌ Ошибка обновления кэша: " + e.getMessage());
-                // Если не удалось обновить кэш, используем старые данные
-                if (supplementsCache.isEmpty()) {
-                    System.err.println("⚠️ Используем fallback данные");
-                    supplementsCache = getFallbackSupplements();
-                }
+    private CacheSnapshot currentCache() {
+        CacheSnapshot current = cache.get();
+        if (current != null && current.source != null && current.source == googleSheetsDataService.peekSnapshot()) {
+            return current;
+        }
+
+        if (current == null) {
+            refreshLock.lock();
+        } else if (!refreshLock.tryLock()) {
+            return current;
+        }
+        try {
+            return refreshCache(cache.get());
+        } finally {
+            refreshLock.unlock();
+        }
+    }
+
+    /**
+     * Обновляет кэш из снимка данных Google Sheets (вызывается под refreshLock)
+     */
+    private CacheSnapshot refreshCache(CacheSnapshot current) {
+        try {
+            GoogleSheetsDataService.DataSnapshot snapshot = googleSheetsDataService.getSnapshot();
+            if (current != null && current.source == snapshot) {
+                return current;
+            }
+            System.out.println("🔄 Обновляем кэш из снимка Google Sheets...");
+            CacheSnapshot fresh = new CacheSnapshot(snapshot, snapshot.getSupplements());
+            cache.set(fresh);
+            System.out.println("✅ Кэш обновлен: " + fresh.supplements.size() + " добавок");
+            return fresh;
+        } catch (IOException e) {
+            System.err.println("❌ Ошибка обновления кэша: " + e.getMessage());
+            // Если не удалось обновить кэш, используем старые данные
+            if (current != null) {
+                return current;
             }
+            System.err.println("⚠️ Используем fallback данные");
+            CacheSnapshot fallback = new CacheSnapshot(null, getFallbackSupplements());
+            cache.set(fallback);
+            return fallback;
         }
     }
 
     @Override
     public List<Supplement> getAll() {
-        refreshCacheIfNeeded();
-        return supplementsCache.stream()
-                .filter(Supplement::isActive)
-                .collect(Collectors.toList());
+        return new ArrayList<>(currentCache().activeSupplements);
     }
 
     @Override
     public List<Supplement> getAllIncludingInactive() {
-        refreshCacheIfNeeded();
-        return new ArrayList<>(supplementsCache);
+        return new ArrayList<>(currentCache().supplements);
     }
 
     @Override
     public Optional<Supplement> getById(Long id) {
-        refreshCacheIfNeeded();
-        return supplementsCache.stream()
-                .filter(s -> s.getId().equals(id))
-                .findFirst();
+        if (id == null) {
+            return Optional.empty();
+        }
+        return Optional.ofNullable(currentCache().byId.get(id));
     }
 
     @Override
     public List<Supplement> getByCategory(String category) {
-        refreshCacheIfNeeded();
-        return supplementsCache.stream()
-                .filter(s -> s.getCategory().getName().equalsIgnoreCase(category))
-                .filter(Supplement::isActive)
-                .collect(Collectors.toList());
+        if (category == null) {
+            return new ArrayList<>();
+        }
+        return new ArrayList<>(currentCache().activeByCategory.getOrDefault(normalize(category), List.of()));
     }
 
     @Override
     public List<Supplement> getByTag(String tag) {
-        refreshCacheIfNeeded();
-        return supplementsCache.stream()
-                .filter(s -> s.getTags().contains(tag.toLowerCase()))
-                .filter(Supplement::isActive)
-                .collect(Collectors.toList());
+        CacheSnapshot current = currentCache();
+        BitSet matches = current.activeByTag.get(tag.toLowerCase());
+        return matches != null ? current.select(matches) : new ArrayList<>();
     }
 
     @Override
     public List<Supplement> getByTags(Set<String> tags) {
-        refreshCacheIfNeeded();
-        return supplementsCache.stream()
-                .filter(s -> s.getTags().stream().anyMatch(tags::contains))
-                .filter(Supplement::isActive)
-                .collect(Collectors.toList());
+        CacheSnapshot current = currentCache();
+        BitSet matches = new BitSet(current.supplements.size());
+        for (String tag : tags) {
+            BitSet tagMatches = tag != null ? current.activeByTag.get(tag) : null;
+            if (tagMatches != null) {
+                matches.or(tagMatches);
+            }
+        }
+        return current.select(matches);
     }
 
+    /**
+     * Поиск подстроки в названии без учета регистра по индексу n-грамм.
+     * Запрос не длиннее NAME_GRAM находится одним обращением к индексу; для более длинного
+     * пересекаются множества всех его n-грамм, и contains проверяется только у оставшихся кандидатов.
+     */
     @Override
     public List<Supplement> searchByName(String name) {
-        refreshCacheIfNeeded();
-        return supplementsCache.stream()
-                .filter(s -> s.getName().toLowerCase().contains(name.toLowerCase()))
-                .filter(Supplement::isActive)
-                .collect(Collectors.toList());
+        CacheSnapshot current = currentCache();
+        String query = name.toLowerCase();
+        if (query.isEmpty()) {
+            return new ArrayList<>(current.activeSupplements);
+        }
+        if (query.length() <= NAME_GRAM) {
+            BitSet matches = current.activeByNameGram.get(query);
+            return matches != null ? current.select(matches) : new ArrayList<>();
+        }
+
+        BitSet candidates = null;
+        for (int i = 0; i + NAME_GRAM <= query.length(); i++) {
+            BitSet gramMatches = current.activeByNameGram.get(query.substring(i, i + NAME_GRAM));
+            if (gramMatches == null) {
+                return new ArrayList<>();
+            }
+            if (candidates == null) {
+                candidates = (BitSet) gramMatches.clone();
+            } else {
+                candidates.and(gramMatches);
+            }
+        }
+        List<Supplement> result = new ArrayList<>();
+        for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+            if (current.names[i].contains(query)) {
+                result.add(current.supplements.get(i));
+            }
+        }
+        return result;
     }
 
     @Override
@@ -107,7 +171,7 @@ public class GoogleSheetsSupplementRepository implements SupplementRepositoryInt
         try {
             if (supplement.getId() == null) {
                 // Новый элемент - генерируем ID
-                Long newId = supplementsCache.stream()
+                Long newId = currentCache().supplements.stream()
                         .mapToLong(Supplement::getId)
                         .max()
                         .orElse(0) + 1;
@@ -120,9 +184,8 @@ public class GoogleSheetsSupplementRepository implements SupplementRepositoryInt
                 googleSheetsService.updateSupplement(supplement);
             }
             
-            // Обновляем кэш
-            lastCacheUpdate = 0; // Принудительно обновляем кэш
-            refreshCacheIfNeeded();
+            // Обновляем кэш: перечитываем таблицу, изменения подхватятся сразу
+            forceRefreshCache();
             
             return supplement;
         } catch (IOException e) {
@@ -137,8 +200,7 @@ public class GoogleSheetsSupplementRepository implements SupplementRepositoryInt
             googleSheetsService.deleteSupplement(id);
             
             // Обновляем кэш
-            lastCacheUpdate = 0;
-            refreshCacheIfNeeded();
+            forceRefreshCache();
         } catch (IOException e) {
             System.err.println("❌ Ошибка удаления из Google Sheets: " + e.getMessage());
             throw new RuntimeException("Не удалось удалить добавку", e);
@@ -147,40 +209,32 @@ public class GoogleSheetsSupplementRepository implements SupplementRepositoryInt
 
     @Override
     public void deactivateById(Long id) {
-        Optional<Supplement> supplementOpt = getById(id);
-        if (supplementOpt.isPresent()) {
-            Supplement supplement = supplementOpt.get();
-            supplement.setActive(false);
-            save(supplement);
-        }
+        setActive(id, false);
     }
 
     @Override
     public void activateById(Long id) {
+        setActive(id, true);
+    }
+
+    // Меняем копию: добавка из кэша принадлежит снимку данных, общему с другими сервисами
+    private void setActive(Long id, boolean active) {
         Optional<Supplement> supplementOpt = getById(id);
         if (supplementOpt.isPresent()) {
-            Supplement supplement = supplementOpt.get();
-            supplement.setActive(true);
+            Supplement supplement = new Supplement(supplementOpt.get());
+            supplement.setActive(active);
             save(supplement);
         }
     }
 
     @Override
     public List<String> getAllCategories() {
-        refreshCacheIfNeeded();
-        return supplementsCache.stream()
-                .map(s -> s.getCategory().getName())
-                .distinct()
-                .sorted()
-                .collect(Collectors.toList());
+        return new ArrayList<>(currentCache().categories);
     }
 
     @Override
     public Set<String> getAllTags() {
-        refreshCacheIfNeeded();
-        return supplementsCache.stream()
-                .flatMap(s -> s.getTags().stream())
-                .collect(Collectors.toSet());
+        return new HashSet<>(currentCache().tags);
     }
 
     /**
@@ -209,8 +263,8 @@ public class GoogleSheetsSupplementRepository implements SupplementRepositoryInt
      * Принудительно обновляет кэш
      */
     public void forceRefreshCache() {
-        lastCacheUpdate = 0;
-        refreshCacheIfNeeded();
+        googleSheetsDataService.refreshSnapshot();
+        currentCache();
     }
 
     /**
@@ -219,4 +273,91 @@ public class GoogleSheetsSupplementRepository implements SupplementRepositoryInt
     public boolean testConnection() {
         return googleSheetsService.testConnection();
     }
+
+    private static String normalize(String value) {
+        return value.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Неизменяемый снимок кэша вместе со снимком данных, из которого он собран (null для fallback).
+     * Индексы строятся один раз при создании снимка; битовые множества тегов и n-грамм названий
+     * хранят порядковые номера активных добавок в списке supplements.
+     */
+    private static final class CacheSnapshot {
+        private final GoogleSheetsDataService.DataSnapshot source;
+        private final List<Supplement> supplements;
+        private final List<Supplement> activeSupplements;
+        private final Map<Long, Supplement> byId;
+        private final Map<String, List<Supplement>> activeByCategory;
+        private final Map<String, BitSet> activeByTag;
+        private final String[] names;
+        private final Map<String, BitSet> activeByNameGram;
+        private final List<String> categories;
+        private final Set<String> tags;
+
+        private CacheSnapshot(GoogleSheetsDataService.DataSnapshot source, List<Supplement> supplements) {
+            this.source = source;
+            this.supplements = List.copyOf(supplements);
+
+            List<Supplement> active = new ArrayList<>();
+            Map<Long, Supplement> ids = new HashMap<>();
+            Map<String, List<Supplement>> byCategory = new HashMap<>();
+            Map<String, BitSet> byTag = new HashMap<>();
+            Map<String, BitSet> byNameGram = new HashMap<>();
+            this.names = new String[this.supplements.size()];
+            Set<String> categoryNames = new TreeSet<>();
+            Set<String> allTags = new HashSet<>();
+
+            for (int i = 0; i < this.supplements.size(); i++) {
+                Supplement supplement = this.supplements.get(i);
+                if (supplement.getId() != null) {
+                    ids.putIfAbsent(supplement.getId(), supplement);
+                }
+                String categoryName = supplement.getCategory() != null ? supplement.getCategory().getName() : null;
+                if (categoryName != null) {
+                    categoryNames.add(categoryName);
+                }
+                Set<String> supplementTags = supplement.getTags() != null ? supplement.getTags() : Set.of();
+                allTags.addAll(supplementTags);
+
+                if (!supplement.isActive()) {
+                    continue;
+                }
+                active.add(supplement);
+                if (categoryName != null) {
+                    byCategory.computeIfAbsent(normalize(categoryName), k -> new ArrayList<>()).add(supplement);
+                }
+                for (String tag : supplementTags) {
+                    byTag.computeIfAbsent(tag, k -> new BitSet(this.supplements.size())).set(i);
+                }
+                String name = supplement.getName() != null ? supplement.getName().toLowerCase() : "";
+                names[i] = name;
+                for (int start = 0; start < name.length(); start++) {
+                    for (int end = start + 1; end <= Math.min(start + NAME_GRAM, name.length()); end++) {
+                        byNameGram.computeIfAbsent(name.substring(start, end), k -> new BitSet(this.supplements.size())).set(i);
+                    }
+                }
+            }
+
+            this.activeSupplements = List.copyOf(active);
+            this.byId = Map.copyOf(ids);
+            byCategory.replaceAll((category, list) -> List.copyOf(list));
+            this.activeByCategory = Map.copyOf(byCategory);
+            this.activeByTag = Map.copyOf(byTag);
+            this.activeByNameGram = Map.copyOf(byNameGram);
+            this.categories = List.copyOf(categoryNames);
+            this.tags = Set.copyOf(allTags);
+        }
+
+        /**
+         * Добавки по набору порядковых номеров в исходном порядке каталога
+         */
+        private List<Supplement> select(BitSet ordinals) {
+            List<Supplement> result = new ArrayList<>(ordinals.cardinality());
+            for (int i = ordinals.nextSetBit(0); i >= 0; i = ordinals.nextSetBit(i + 1)) {
+                result.add(supplements.get(i));
+            }
+            return result;
+        }
+    }
 }
@@ -0,0 +1,258 @@
+package com.soloway.BadRecommender.service;
+
+import com.soloway.BadRecommender.model.Category;
+import com.soloway.BadRecommender.model.Supplement;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Хранит последний удачный снимок данных Google Sheets в компактном бинарном файле
+ * на постоянном диске, чтобы после перезапуска сервис сразу отвечал из него.
+ */
+@Component
+public class DataSnapshotStore {
+
+    private static final String FILE_NAME = "sheets-snapshot.bin";
+    private static final int MAGIC = 0x42524453; // "BRDS"
+    private static final int FORMAT_VERSION = 2;
+
+    private final Path file;
+
+    public DataSnapshotStore(@Value("${data.dir:/app/data}") String dataDir) {
+        this.file = Paths.get(dataDir, FILE_NAME);
+    }
+
+    /**
+     * Читает снимок с диска. Возвращает null, если файла нет или он поврежден.
+     */
+    public GoogleSheetsDataService.DataSnapshot load() {
+        if (!Files.isRegularFile(file)) {
+            System.out.println("📂 Снимок данных на диске не найден: " + file);
+            return null;
+        }
+        long start = System.currentTimeMillis();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                System.err.println("⚠️ Неизвестный формат снимка данных: " + file);
+                return null;
+            }
+            long loadedAt = in.readLong();
+            String contentHash = readString(in);
+            List<Supplement> supplements = readSupplements(in);
+            List<String> categories = readStrings(in);
+            List<GoogleSheetsDataService.Question> questions = readQuestions(in);
+            List<GoogleSheetsDataService.AnswerScore> answerScores = readAnswerScores(in);
+            List<GoogleSheetsDataService.BaseScore> baseScores = readBaseScores(in);
+
+            GoogleSheetsDataService.DataSnapshot snapshot = new GoogleSheetsDataService.DataSnapshot(
+                supplements, categories, questions, answerScores, baseScores, loadedAt, contentHash);
+            System.out.println("✅ Снимок данных прочитан с диска за " + (System.currentTimeMillis() - start) +
+                    " мс: добавок " + supplements.size() + ", правил " + answerScores.size());
+            return snapshot;
+        } catch (Exception e) {
+            System.err.println("❌ Ошибка чтения снимка данных с диска: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Атомарно записывает снимок на диск (через временный файл). Ошибки записи только логируются.
+     */
+    public void save(GoogleSheetsDataService.DataSnapshot snapshot) {
+        Path tmp = file.resolveSibling(FILE_NAME + ".tmp");
+        try {
+            Files.createDirectories(file.getParent());
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeLong(snapshot.getLoadedAt());
+                writeString(out, snapshot.getContentHash());
+                writeSupplements(out, snapshot.getSupplements());
+                writeStrings(out, snapshot.getCategories());
+                writeQuestions(out, snapshot.getQuestions());
+                writeAnswerScores(out, snapshot.getAnswerScores());
+                writeBaseScores(out, snapshot.getBaseScores());
+            }
+            try {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+            System.out.println("💾 Снимок данных сохранен на диск: " + file);
+        } catch (Exception e) {
+            System.err.println("❌ Ошибка сохранения снимка данных на диск: " + e.getMessage());
+            try {
+                Files.deleteIfExists(tmp);
+            } catch (IOException ignored) {
+                // временный файл останется до следующей записи
+            }
+        }
+    }
+
+    private static void writeSupplements(DataOutputStream out, List<Supplement> supplements) throws IOException {
+        out.writeInt(supplements.size());
+        for (Supplement supplement : supplements) {
+            out.writeBoolean(supplement.getId() != null);
+            if (supplement.getId() != null) {
+                out.writeLong(supplement.getId());
+            }
+            writeString(out, supplement.getCode());
+            writeString(out, supplement.getName());
+            writeString(out, supplement.getCategory() != null ? supplement.getCategory().getName() : null);
+            writeStrings(out, supplement.getTags() != null ? new ArrayList<>(supplement.getTags()) : List.of());
+            out.writeBoolean(supplement.isActive());
+            writeString(out, supplement.getDescription());
+            writeString(out, supplement.getProductUrl());
+            writeString(out, supplement.getImageUrl());
+            writeString(out, supplement.getPrice());
+            writeString(out, supplement.getType());
+        }
+    }
+
+    private static List<Supplement> readSupplements(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        List<Supplement> supplements = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Long id = in.readBoolean() ? in.readLong() : null;
+            String code = readString(in);
+            String name = readString(in);
+            String categoryName = readString(in);
+            Set<String> tags = new LinkedHashSet<>(readStrings(in));
+            boolean active = in.readBoolean();
+
+            Supplement supplement = new Supplement(id, code, name,
+                    categoryName != null ? new Category(categoryName) : null, tags, active);
+            supplement.setDescription(readString(in));
+            supplement.setProductUrl(readString(in));
+            supplement.setImageUrl(readString(in));
+            supplement.setPrice(readString(in));
+            supplement.setType(readString(in));
+            supplements.add(supplement);
+        }
+        return supplements;
+    }
+
+    private static void writeQuestions(DataOutputStream out, List<GoogleSheetsDataService.Question> questions) throws IOException {
+        out.writeInt(questions.size());
+        for (GoogleSheetsDataService.Question question : questions) {
+            writeString(out, question.getId());
+            writeString(out, question.getCategory());
+            writeString(out, question.getText());
+            writeString(out, question.getType());
+            writeString(out, question.getOptions());
+        }
+    }
+
+    private static List<GoogleSheetsDataService.Question> readQuestions(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        List<GoogleSheetsDataService.Question> questions = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            GoogleSheetsDataService.Question question = new GoogleSheetsDataService.Question();
+            question.setId(readString(in));
+            question.setCategory(readString(in));
+            question.setText(readString(in));
+            question.setType(readString(in));
+            question.setOptions(readString(in));
+            questions.add(question);
+        }
+        return questions;
+    }
+
+    private static void writeAnswerScores(DataOutputStream out, List<GoogleSheetsDataService.AnswerScore> answerScores) throws IOException {
+        out.writeInt(answerScores.size());
+        for (GoogleSheetsDataService.AnswerScore answerScore : answerScores) {
+            writeString(out, answerScore.getQuestionId());
+            writeString(out, answerScore.getAnswer());
+            writeString(out, answerScore.getSupplementCode());
+            out.writeDouble(answerScore.getScore());
+            writeString(out, answerScore.getDescription());
+        }
+    }
+
+    private static List<GoogleSheetsDataService.AnswerScore> readAnswerScores(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        List<GoogleSheetsDataService.AnswerScore> answerScores = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            GoogleSheetsDataService.AnswerScore answerScore = new GoogleSheetsDataService.AnswerScore();
+            answerScore.setQuestionId(readString(in));
+            answerScore.setAnswer(readString(in));
+            answerScore.setSupplementCode(readString(in));
+            answerScore.setScore(in.readDouble());
+            answerScore.setDescription(readString(in));
+            answerScores.add(answerScore);
+        }
+        return answerScores;
+    }
+
+    private static void writeBaseScores(DataOutputStream out, List<GoogleSheetsDataService.BaseScore> baseScores) throws IOException {
+        out.writeInt(baseScores.size());
+        for (GoogleSheetsDataService.BaseScore baseScore : baseScores) {
+            writeString(out, baseScore.getSupplementCode());
+            writeString(out, baseScore.getTopic());
+            out.writeDouble(baseScore.getBaseScore());
+            writeString(out, baseScore.getDescription());
+        }
+    }
+
+    private static List<GoogleSheetsDataService.BaseScore> readBaseScores(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        List<GoogleSheetsDataService.BaseScore> baseScores = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            GoogleSheetsDataService.BaseScore baseScore = new GoogleSheetsDataService.BaseScore();
+            baseScore.setSupplementCode(readString(in));
+            baseScore.setTopic(readString(in));
+            baseScore.setBaseScore(in.readDouble());
+            baseScore.setDescription(readString(in));
+            baseScores.add(baseScore);
+        }
+        return baseScores;
+    }
+
+    private static void writeStrings(DataOutputStream out, List<String> values) throws IOException {
+        out.writeInt(values.size());
+        for (String value : values) {
+            writeString(out, value);
+        }
+    }
+
+    private static List<String> readStrings(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        List<String> values = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            values.add(readString(in));
+        }
+        return values;
+    }
+
+    // Строка: длина в байтах UTF-8 (-1 для null) и сами байты; writeUTF ограничен 64 КБ
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
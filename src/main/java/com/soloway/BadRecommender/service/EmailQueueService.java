@@ -0,0 +1,282 @@
+package com.soloway.BadRecommender.service;
+
+import com.soloway.BadRecommender.model.Supplement;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import jakarta.mail.internet.MimeMessage;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Асинхронная отправка писем с рекомендациями: ограниченная очередь, отдельный пул отправителей,
+ * повторы с экспоненциальной задержкой и журнал недоставленных писем (dead letter).
+ * Отправитель забирает из очереди пачку писем и отправляет ее через одно соединение из SmtpTransportPool.
+ * Глубина очереди, время отправки и ошибки публикуются в метриках Actuator (email.*).
+ */
+@Service
+public class EmailQueueService {
+
+    private static final String DEAD_LETTER_FILE = "email-dead-letter.log";
+
+    private final EmailService emailService;
+    private final SmtpTransportPool transportPool;
+    private final int batchSize;
+    private final int maxAttempts;
+    private final long retryBackoffMs;
+    private final Path deadLetterFile;
+
+    private final BlockingQueue<EmailTask> queue;
+    private final ExecutorService senders;
+    private final ScheduledExecutorService retryScheduler;
+    // Письма, ожидающие повтора в retryScheduler; при остановке возвращаются в очередь
+    private final Set<EmailTask> pendingRetries = ConcurrentHashMap.newKeySet();
+    private volatile boolean running = true;
+
+    private final Timer sendTimer;
+    private final Counter sentCounter;
+    private final Counter failedCounter;
+    private final Counter deadLetterCounter;
+
+    public EmailQueueService(EmailService emailService,
+                             SmtpTransportPool transportPool,
+                             MeterRegistry meterRegistry,
+                             @Value("${email.queue.capacity:500}") int capacity,
+                             @Value("${email.queue.workers:2}") int workers,
+                             @Value("${email.queue.batch-size:20}") int batchSize,
+                             @Value("${email.queue.max-attempts:4}") int maxAttempts,
+                             @Value("${email.queue.retry-backoff:5000}") long retryBackoffMs,
+                             @Value("${data.dir:/app/data}") String dataDir) {
+        this.emailService = emailService;
+        this.transportPool = transportPool;
+        this.batchSize = Math.max(1, batchSize);
+        this.maxAttempts = maxAttempts;
+        this.retryBackoffMs = retryBackoffMs;
+        this.deadLetterFile = Paths.get(dataDir, DEAD_LETTER_FILE);
+
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.senders = Executors.newFixedThreadPool(workers, namedThreads("email-sender"));
+        this.retryScheduler = Executors.newSingleThreadScheduledExecutor(namedThreads("email-retry"));
+        for (int i = 0; i < workers; i++) {
+            senders.execute(this::runSender);
+        }
+
+        Gauge.builder("email.queue.depth", queue, BlockingQueue::size)
+                .description("Письма, ожидающие отправки")
+                .register(meterRegistry);
+        this.sendTimer = Timer.builder("email.send.latency")
+                .description("Время отправки пачки писем через SMTP")
+                .register(meterRegistry);
+        this.sentCounter = Counter.builder("email.sent")
+                .description("Успешно отправленные письма")
+                .register(meterRegistry);
+        this.failedCounter = Counter.builder("email.failed")
+                .description("Неудачные попытки отправки")
+                .register(meterRegistry);
+        this.deadLetterCounter = Counter.builder("email.dead_lettered")
+                .description("Письма, не доставленные после всех попыток")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Ставит письмо с рекомендациями в очередь. Возвращает false, если очередь переполнена
+     * (письмо сразу попадает в журнал недоставленных).
+     */
+    public boolean enqueueRecommendationsEmail(String userEmail, String userName, String selectedTopic,
+                                               List<Supplement> mainRecommendations,
+                                               List<Supplement> additionalRecommendations) {
+        EmailTask task = new EmailTask(userEmail, userName, selectedTopic,
+                List.copyOf(mainRecommendations), List.copyOf(additionalRecommendations));
+        if (!running || !queue.offer(task)) {
+            deadLetter(task, "очередь отправки переполнена");
+            return false;
+        }
+        System.out.println("📨 Email поставлен в очередь: " + userEmail + " (в очереди: " + queue.size() + ")");
+        return true;
+    }
+
+    /**
+     * Цикл отправителя: ждет первое письмо, добирает из очереди до batchSize и отправляет пачкой.
+     * После остановки дорабатывает оставшиеся в очереди письма.
+     */
+    private void runSender() {
+        List<EmailTask> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                EmailTask first = queue.poll(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                sendBatch(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                System.err.println("❌ Непредвиденная ошибка отправителя email: " + e.getMessage());
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void sendBatch(List<EmailTask> batch) {
+        List<EmailTask> prepared = new ArrayList<>(batch.size());
+        List<MimeMessage> messages = new ArrayList<>(batch.size());
+        for (EmailTask task : batch) {
+            task.attempts.incrementAndGet();
+            try {
+                messages.add(emailService.createHtmlRecommendationsMessage(task.userEmail, task.userName,
+                        task.selectedTopic, task.mainRecommendations, task.additionalRecommendations));
+                prepared.add(task);
+            } catch (Exception e) {
+                onFailure(task, e);
+            }
+        }
+        if (messages.isEmpty()) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        Map<Integer, Exception> failures = transportPool.sendBatch(messages);
+        sendTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+
+        for (int i = 0; i < prepared.size(); i++) {
+            Exception error = failures.get(i);
+            if (error == null) {
+                sentCounter.increment();
+            } else {
+                onFailure(prepared.get(i), error);
+            }
+        }
+        System.out.println("✅ Отправлена пачка писем: " + (prepared.size() - failures.size()) + " из " + batch.size());
+    }
+
+    private void onFailure(EmailTask task, Exception e) {
+        failedCounter.increment();
+        System.err.println("❌ Ошибка отправки email на " + task.userEmail + " (попытка " + task.attempts.get() + " из " + maxAttempts + "): " + e.getMessage());
+        scheduleRetry(task, e);
+    }
+
+    private void scheduleRetry(EmailTask task, Exception error) {
+        int attempt = task.attempts.get();
+        if (attempt >= maxAttempts) {
+            deadLetter(task, error.getClass().getSimpleName() + ": " + error.getMessage());
+            return;
+        }
+        // Экспоненциальная задержка: backoff, 2*backoff, 4*backoff...
+        long delay = retryBackoffMs << (attempt - 1);
+        pendingRetries.add(task);
+        try {
+            retryScheduler.schedule(() -> {
+                // Письмо забирает тот, кто первым убрал его из pendingRetries: повтор или остановка
+                if (pendingRetries.remove(task) && !queue.offer(task)) {
+                    deadLetter(task, "очередь отправки переполнена при повторе");
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+            System.out.println("🔁 Повтор отправки на " + task.userEmail + " через " + delay + " мс");
+        } catch (RejectedExecutionException e) {
+            if (pendingRetries.remove(task)) {
+                deadLetter(task, "сервис остановлен до повторной попытки");
+            }
+        }
+    }
+
+    /**
+     * Записывает недоставленное письмо в журнал на постоянном диске
+     */
+    private void deadLetter(EmailTask task, String reason) {
+        deadLetterCounter.increment();
+        String line = LocalDateTime.now() + "\t" + task.userEmail + "\t" + task.userName + "\t" +
+                task.selectedTopic + "\tпопыток: " + task.attempts.get() + "\t" + reason + System.lineSeparator();
+        System.err.println("☠️ Email не доставлен: " + line.trim());
+        synchronized (this) {
+            try {
+                Files.createDirectories(deadLetterFile.getParent());
+                Files.writeString(deadLetterFile, line, StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            } catch (IOException e) {
+                System.err.println("❌ Не удалось записать журнал недоставленных писем: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Текущая глубина очереди отправки
+     */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        retryScheduler.shutdownNow();
+        // Отложенные повторы не теряем: отправители допишут их вместе с остатком очереди
+        for (EmailTask task : pendingRetries) {
+            if (pendingRetries.remove(task) && !queue.offer(task)) {
+                deadLetter(task, "сервис остановлен до повторной попытки");
+            }
+        }
+        running = false;
+        senders.shutdown();
+        try {
+            if (!senders.awaitTermination(30, TimeUnit.SECONDS)) {
+                senders.shutdownNow();
+                System.err.println("⚠️ Не все письма из очереди отправлены до остановки: " + queue.size());
+                List<EmailTask> unsent = new ArrayList<>();
+                queue.drainTo(unsent);
+                unsent.forEach(task -> deadLetter(task, "сервис остановлен до отправки"));
+            }
+        } catch (InterruptedException e) {
+            senders.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static ThreadFactory namedThreads(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Письмо в очереди вместе со счетчиком попыток
+     */
+    private static final class EmailTask {
+        private final String userEmail;
+        private final String userName;
+        private final String selectedTopic;
+        private final List<Supplement> mainRecommendations;
+        private final List<Supplement> additionalRecommendations;
+        private final AtomicInteger attempts = new AtomicInteger();
+
+        private EmailTask(String userEmail, String userName, String selectedTopic,
+                          List<Supplement> mainRecommendations, List<Supplement> additionalRecommendations) {
+            this.userEmail = userEmail;
+            this.userName = userName;
+            this.selectedTopic = selectedTopic;
+            this.mainRecommendations = mainRecommendations;
+            this.additionalRecommendations = additionalRecommendations;
+        }
+    }
+}
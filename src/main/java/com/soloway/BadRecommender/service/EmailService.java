@@ -2,6 +2,7 @@ package com.soloway.BadRecommender.service;
 
 import com.soloway.BadRecommender.model.Supplement;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
 import org.springframework.mail.SimpleMailMessage;
 import org.springframework.mail.javamail.JavaMailSender;
 import org.springframework.mail.javamail.MimeMessageHelper;
@@ -9,11 +10,16 @@ import org.springframework.stereotype.Service;
 import org.springframework.core.io.ClassPathResource;
 import org.springframework.core.io.Resource;
 
+import jakarta.annotation.PostConstruct;
 import jakarta.mail.MessagingException;
 import jakarta.mail.internet.MimeMessage;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 @Service
 public class EmailService {
@@ -21,6 +27,18 @@ public class EmailService {
     @Autowired
     private JavaMailSender mailSender;
 
+    private static final String TEMPLATE_PATH = "templates/email-recommendations.html";
+    private static final String BLOCK_START = "<!-- Начало блока с товарами -->" +
+            "<table align=\"center\" border=\"0\" cellpadding=\"0\" cellspacing=\"0\" role=\"presentation\" style=\"width:100%;max-width:600px;Margin:0 auto;\">" +
+            "<tr>";
+    private static final String BLOCK_END = "</tr></table><!-- Конец блока -->";
+
+    // Шаблон, разобранный при старте; null - шаблон недоступен, отправляем текстовое письмо
+    private volatile CompiledTemplate template;
+
+    // HTML карточек текущей версии каталога; заменяется целиком при новом снимке данных
+    private volatile CardCache cardCache = new CardCache(Map.of());
+
     /**
      * Отправляет простой email
      */
@@ -76,26 +94,44 @@ public class EmailService {
                                            List<Supplement> mainRecommendations, 
                                            List<Supplement> additionalRecommendations) {
         try {
-            MimeMessage mimeMessage = mailSender.createMimeMessage();
-            MimeMessageHelper helper = new MimeMessageHelper(mimeMessage, true, StandardCharsets.UTF_8.name());
-            
-            helper.setTo(userEmail);
-            helper.setFrom("marketing@soloways.ru");
-            helper.setSubject("Ваши персональные рекомендации БАДов от SOLOWAYS");
-            
-            String htmlContent = buildHtmlEmailContent(userName, selectedTopic, mainRecommendations, additionalRecommendations);
-            helper.setText(htmlContent, true);
-            
-            mailSender.send(mimeMessage);
-            
-            System.out.println("✅ HTML Email с рекомендациями отправлен на: " + userEmail);
-            
+            deliverHtmlRecommendationsEmail(userEmail, userName, selectedTopic, mainRecommendations, additionalRecommendations);
         } catch (MessagingException e) {
             System.err.println("❌ Ошибка отправки HTML email: " + e.getMessage());
             e.printStackTrace();
         }
     }
 
+    /**
+     * Отправляет HTML email с рекомендациями и пробрасывает ошибки отправки (для очереди с повторами)
+     */
+    public void deliverHtmlRecommendationsEmail(String userEmail, String userName, String selectedTopic, 
+                                              List<Supplement> mainRecommendations, 
+                                              List<Supplement> additionalRecommendations) throws MessagingException {
+        MimeMessage mimeMessage = createHtmlRecommendationsMessage(userEmail, userName, selectedTopic,
+                mainRecommendations, additionalRecommendations);
+        mailSender.send(mimeMessage);
+        
+        System.out.println("✅ HTML Email с рекомендациями отправлен на: " + userEmail);
+    }
+
+    /**
+     * Собирает HTML письмо с рекомендациями, не отправляя его (для пакетной отправки через пул SMTP-соединений)
+     */
+    public MimeMessage createHtmlRecommendationsMessage(String userEmail, String userName, String selectedTopic, 
+                                                       List<Supplement> mainRecommendations, 
+                                                       List<Supplement> additionalRecommendations) throws MessagingException {
+        MimeMessage mimeMessage = mailSender.createMimeMessage();
+        MimeMessageHelper helper = new MimeMessageHelper(mimeMessage, true, StandardCharsets.UTF_8.name());
+        
+        helper.setTo(userEmail);
+        helper.setFrom("marketing@soloways.ru");
+        helper.setSubject("Ваши персональные рекомендации БАДов от SOLOWAYS");
+        
+        String htmlContent = buildHtmlEmailContent(userName, selectedTopic, mainRecommendations, additionalRecommendations);
+        helper.setText(htmlContent, true);
+        return mimeMessage;
+    }
+
     /**
      * Строит содержимое email
      */
@@ -138,36 +174,55 @@ public class EmailService {
         return content.toString();
     }
 
+    /**
+     * Разбирает HTML шаблон на статические сегменты и слоты плейсхолдеров один раз при старте
+     */
+    @PostConstruct
+    public void loadTemplate() {
+        try {
+            Resource resource = new ClassPathResource(TEMPLATE_PATH);
+            String html = new String(resource.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+            template = CompiledTemplate.compile(html);
+            System.out.println("✅ HTML шаблон письма разобран: сегментов " + template.segments.length);
+        } catch (IOException e) {
+            System.err.println("❌ Ошибка загрузки HTML шаблона: " + e.getMessage());
+            template = null;
+        }
+    }
+
+    /**
+     * Заводит кэш карточек для новой версии каталога (новый снимок данных Google Sheets)
+     */
+    @EventListener
+    public void onSnapshotUpdated(GoogleSheetsDataService.DataSnapshot snapshot) {
+        Map<String, Supplement> catalog = new HashMap<>();
+        for (Supplement supplement : snapshot.getSupplements()) {
+            if (supplement.getCode() != null) {
+                catalog.put(supplement.getCode(), supplement);
+            }
+        }
+        cardCache = new CardCache(catalog);
+    }
+
     /**
      * Строит HTML содержимое email
      */
     private String buildHtmlEmailContent(String userName, String selectedTopic, 
                                        List<Supplement> mainRecommendations, 
                                        List<Supplement> additionalRecommendations) {
-        try {
-            // Загружаем HTML шаблон
-            Resource resource = new ClassPathResource("templates/email-recommendations.html");
-            String htmlTemplate = new String(resource.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
-            
-            // Заменяем плейсхолдеры
-            htmlTemplate = htmlTemplate.replace("{userName}", userName);
-            htmlTemplate = htmlTemplate.replace("{selectedTopic}", getTopicDisplayName(selectedTopic));
-            
-            // Генерируем HTML для основных рекомендаций
-            String mainRecommendationsHtml = buildRecommendationsHtml(mainRecommendations, 3);
-            htmlTemplate = htmlTemplate.replace("{mainRecommendations}", mainRecommendationsHtml);
-            
-            // Генерируем HTML для дополнительных рекомендаций
-            String additionalRecommendationsHtml = buildRecommendationsHtml(additionalRecommendations, 2);
-            htmlTemplate = htmlTemplate.replace("{additionalRecommendations}", additionalRecommendationsHtml);
-            
-            return htmlTemplate;
-            
-        } catch (IOException e) {
-            System.err.println("❌ Ошибка загрузки HTML шаблона: " + e.getMessage());
-            e.printStackTrace();
+        CompiledTemplate compiled = template;
+        if (compiled == null) {
             return buildEmailContent(userName, selectedTopic, mainRecommendations, additionalRecommendations);
         }
+        
+        // Значения слотов в порядке Slot.values()
+        String[] values = new String[Slot.values().length];
+        values[Slot.USER_NAME.ordinal()] = userName;
+        values[Slot.SELECTED_TOPIC.ordinal()] = getTopicDisplayName(selectedTopic);
+        values[Slot.MAIN_RECOMMENDATIONS.ordinal()] = buildRecommendationsHtml(mainRecommendations, 3);
+        values[Slot.ADDITIONAL_RECOMMENDATIONS.ordinal()] = buildRecommendationsHtml(additionalRecommendations, 2);
+        
+        return compiled.render(values);
     }
 
     /**
@@ -179,44 +234,54 @@ public class EmailService {
         }
         
         int count = Math.min(maxCount, recommendations.size());
-        StringBuilder html = new StringBuilder();
-        
-        // Начало блока с товарами
-        html.append("<!-- Начало блока с товарами -->");
-        html.append("<table align=\"center\" border=\"0\" cellpadding=\"0\" cellspacing=\"0\" role=\"presentation\" style=\"width:100%;max-width:600px;Margin:0 auto;\">");
-        html.append("<tr>");
+        // Определяем ширину ячейки в зависимости от количества товаров
+        String cellWidth = count == 3 ? "33.3%" : "50%";
         
-        // Генерируем ячейки для каждого товара
+        String[] cards = new String[count];
+        int length = BLOCK_START.length() + BLOCK_END.length();
         for (int i = 0; i < count; i++) {
-            Supplement supplement = recommendations.get(i);
-            html.append(buildSupplementCardHtml(supplement, i, count));
+            cards[i] = getSupplementCardHtml(recommendations.get(i));
+            length += cards[i].length() + 160;
         }
         
-        html.append("</tr>");
-        html.append("</table>");
-        html.append("<!-- Конец блока -->");
+        StringBuilder html = new StringBuilder(length);
+        html.append(BLOCK_START);
+        for (int i = 0; i < count; i++) {
+            // Ячейка товара: обертка зависит от позиции, содержимое карточки берется из кэша
+            html.append("<!-- Товар ").append(i + 1).append(" -->");
+            html.append("<td align=\"center\" valign=\"top\" class=\"stack-column\" style=\"width:").append(cellWidth).append(";padding:10px;\">");
+            html.append(cards[i]);
+            html.append("</td>");
+        }
+        html.append(BLOCK_END);
         
         return html.toString();
     }
 
+    /**
+     * Возвращает HTML карточки БАДа из кэша текущего каталога.
+     * Письма из очереди могут нести добавки из прежнего снимка: их карточки строятся без кэша,
+     * чтобы устаревший HTML не попал в кэш новой версии каталога.
+     */
+    private String getSupplementCardHtml(Supplement supplement) {
+        CardCache cache = cardCache;
+        if (supplement.getCode() == null || cache.catalog.get(supplement.getCode()) != supplement) {
+            return buildSupplementCardHtml(supplement);
+        }
+        return cache.cards.computeIfAbsent(supplement.getCode(), code -> buildSupplementCardHtml(supplement));
+    }
+
     /**
      * Строит HTML карточки для одного БАДа
      */
-    private String buildSupplementCardHtml(Supplement supplement, int index, int totalCount) {
+    private String buildSupplementCardHtml(Supplement supplement) {
         String imageUrl = supplement.getImageUrl() != null ? supplement.getImageUrl() : "https://ewunnow.stripocdn.email/content/guids/CABINET_9792b212c76b5f87196ee439d52ce7525ccfe0e78e0e5256a0d822ee48f60855/images/63283055_mzX.jpg";
         String productUrl = supplement.getProductUrl() != null ? supplement.getProductUrl() : "https://soloways.tilda.ws";
         String name = supplement.getName() != null ? supplement.getName() : "БАД";
         String fullDescription = supplement.getDescription() != null ? supplement.getDescription() : "Описание отсутствует";
         String description = truncateDescription(fullDescription, 80); // Ограничиваем до 80 символов
         
-        // Определяем ширину ячейки в зависимости от количества товаров
-        String cellWidth = totalCount == 3 ? "33.3%" : "50%";
-        
-        StringBuilder html = new StringBuilder();
-        
-        // Ячейка товара
-        html.append("<!-- Товар ").append(index + 1).append(" -->");
-        html.append("<td align=\"center\" valign=\"top\" class=\"stack-column\" style=\"width:").append(cellWidth).append(";padding:10px;\">");
+        StringBuilder html = new StringBuilder(1024);
         html.append("<table border=\"0\" cellpadding=\"0\" cellspacing=\"0\" role=\"presentation\" width=\"100%\">");
         
         // Изображение
@@ -250,7 +315,6 @@ public class EmailService {
         html.append("</tr>");
         
         html.append("</table>");
-        html.append("</td>");
         
         return html.toString();
     }
@@ -295,4 +359,95 @@ public class EmailService {
             default: return topic;
         }
     }
+
+    /**
+     * Плейсхолдеры HTML шаблона
+     */
+    private enum Slot {
+        USER_NAME("{userName}"),
+        SELECTED_TOPIC("{selectedTopic}"),
+        MAIN_RECOMMENDATIONS("{mainRecommendations}"),
+        ADDITIONAL_RECOMMENDATIONS("{additionalRecommendations}");
+
+        private final String placeholder;
+
+        Slot(String placeholder) {
+            this.placeholder = placeholder;
+        }
+    }
+
+    /**
+     * Карточки одной версии каталога: код БАДа -> добавка из снимка и код -> HTML карточки
+     */
+    private static final class CardCache {
+        private final Map<String, Supplement> catalog;
+        private final Map<String, String> cards = new ConcurrentHashMap<>();
+
+        private CardCache(Map<String, Supplement> catalog) {
+            this.catalog = catalog;
+        }
+    }
+
+    /**
+     * Шаблон, разобранный на статические сегменты: segments[i] идет перед slots[i],
+     * последний сегмент - после последнего слота
+     */
+    private static final class CompiledTemplate {
+        private final String[] segments;
+        private final Slot[] slots;
+        private final int staticLength;
+
+        private CompiledTemplate(String[] segments, Slot[] slots) {
+            this.segments = segments;
+            this.slots = slots;
+            int length = 0;
+            for (String segment : segments) {
+                length += segment.length();
+            }
+            this.staticLength = length;
+        }
+
+        private static CompiledTemplate compile(String html) {
+            List<String> segments = new ArrayList<>();
+            List<Slot> slots = new ArrayList<>();
+            int position = 0;
+            while (true) {
+                // Ближайший плейсхолдер от текущей позиции
+                int found = -1;
+                Slot foundSlot = null;
+                for (Slot slot : Slot.values()) {
+                    int index = html.indexOf(slot.placeholder, position);
+                    if (index >= 0 && (found < 0 || index < found)) {
+                        found = index;
+                        foundSlot = slot;
+                    }
+                }
+                if (foundSlot == null) {
+                    break;
+                }
+                segments.add(html.substring(position, found));
+                slots.add(foundSlot);
+                position = found + foundSlot.placeholder.length();
+            }
+            segments.add(html.substring(position));
+            return new CompiledTemplate(segments.toArray(new String[0]), slots.toArray(new Slot[0]));
+        }
+
+        /**
+         * Склеивает сегменты и значения слотов в буфер точного размера
+         */
+        private String render(String[] values) {
+            int length = staticLength;
+            for (Slot slot : slots) {
+                String value = values[slot.ordinal()];
+                length += value != null ? value.length() : 4;
+            }
+            StringBuilder html = new StringBuilder(length);
+            for (int i = 0; i < slots.length; i++) {
+                html.append(segments[i]).append(values[slots[i].ordinal()]);
+            }
+            html.append(segments[slots.length]);
+            return html.toString();
+        }
+    }
 }
@@ -1,51 +1,249 @@
 package com.soloway.BadRecommender.service;
 
 import com.google.api.services.sheets.v4.Sheets;
+import com.google.api.services.sheets.v4.model.BatchGetValuesResponse;
 import com.google.api.services.sheets.v4.model.ValueRange;
+import com.soloway.BadRecommender.model.Supplement;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.stream.Collectors;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
 
 @Service
 public class GoogleSheetsDataService {
 
     private final Sheets sheetsService;
     private final String spreadsheetId;
+    private final GoogleSheetsService googleSheetsService;
+    private final ApplicationEventPublisher eventPublisher;
+    private final DataSnapshotStore snapshotStore;
 
     // Названия листов в Google Sheets (используем ваши существующие)
     private static final String CATEGORIES_SHEET = "Categories";
     private static final String QUESTIONS_SHEET = "Questions";
     private static final String ANSWER_SCORES_SHEET = "AnswerScores";
     private static final String BASE_SCORES_SHEET = "BaseScores";
-    private static final String SUPPLEMENTS_SHEET = "supplements";
+
+    // Диапазоны, которые загружаются одним запросом batchGet (порядок важен для разбора ответа)
+    private static final List<String> SNAPSHOT_RANGES = List.of(
+        GoogleSheetsService.SUPPLEMENTS_RANGE,
+        CATEGORIES_SHEET + "!A2:B",
+        QUESTIONS_SHEET + "!A2:E",
+        ANSWER_SCORES_SHEET + "!A1:E",
+        BASE_SCORES_SHEET + "!A2:D"
+    );
+
+    // Последний успешно загруженный снимок данных (stale-while-revalidate)
+    private final AtomicReference<DataSnapshot> snapshot = new AtomicReference<>();
+    private final Object loadLock = new Object();
 
     @Autowired
     public GoogleSheetsDataService(Sheets sheetsService,
-                                   @Value("${google.sheets.spreadsheet-id}") String spreadsheetId) {
+                                   @Value("${google.sheets.spreadsheet-id}") String spreadsheetId,
+                                   GoogleSheetsService googleSheetsService,
+                                   ApplicationEventPublisher eventPublisher,
+                                   DataSnapshotStore snapshotStore) {
         this.sheetsService = sheetsService;
         this.spreadsheetId = spreadsheetId;
+        this.googleSheetsService = googleSheetsService;
+        this.eventPublisher = eventPublisher;
+        this.snapshotStore = snapshotStore;
+    }
+
+    /**
+     * Возвращает текущий снимок данных. Синхронная загрузка (сначала с диска, затем из Google Sheets)
+     * выполняется только пока снимка еще нет; дальше читатели никогда не ждут Google Sheets.
+     */
+    public DataSnapshot getSnapshot() throws IOException {
+        DataSnapshot current = snapshot.get();
+        if (current != null) {
+            return current;
+        }
+        synchronized (loadLock) {
+            current = snapshot.get();
+            if (current == null) {
+                current = snapshotStore.load();
+                if (current == null) {
+                    current = fetchSnapshot(null);
+                    snapshotStore.save(current);
+                }
+                publish(current);
+            }
+            return current;
+        }
+    }
+
+    /**
+     * Текущий снимок без загрузки или null, если данных еще нет
+     */
+    public DataSnapshot peekSnapshot() {
+        return snapshot.get();
+    }
+
+    /**
+     * Прогрев кэша после старта: мгновенно поднимаем снимок с диска,
+     * а первое обновление из Google Sheets выполняем в фоне
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUp() {
+        synchronized (loadLock) {
+            if (snapshot.get() == null) {
+                DataSnapshot stored = snapshotStore.load();
+                if (stored != null) {
+                    publish(stored);
+                }
+            }
+        }
+        CompletableFuture.runAsync(this::refreshSnapshot);
+    }
+
+    /**
+     * Фоновая проверка изменений в таблице. Если содержимое не изменилось, снимок не пересобирается;
+     * при изменении новый снимок публикуется сразу. При недоступности Google Sheets остается последний удачный снимок.
+     */
+    @Scheduled(fixedDelayString = "${google.sheets.change-check-interval:60000}",
+               initialDelayString = "${google.sheets.change-check-interval:60000}")
+    public void refreshSnapshot() {
+        try {
+            DataSnapshot fresh;
+            synchronized (loadLock) {
+                DataSnapshot current = snapshot.get();
+                fresh = fetchSnapshot(current);
+                if (fresh == current) {
+                    return;
+                }
+                publish(fresh);
+            }
+            snapshotStore.save(fresh);
+        } catch (Exception e) {
+            System.err.println("❌ Ошибка обновления кэша Google Sheets: " + e.getMessage());
+            if (snapshot.get() != null) {
+                System.err.println("⚠️ Продолжаем отдавать данные из последнего снимка");
+            }
+        }
+    }
+
+    private void publish(DataSnapshot fresh) {
+        snapshot.set(fresh);
+        eventPublisher.publishEvent(fresh);
+    }
+
+    /**
+     * Загружает все нужные диапазоны одним запросом values:batchGet и собирает из них один снимок,
+     * чтобы добавки, вопросы и правила всегда относились к одной версии таблицы.
+     * Если хэш содержимого совпадает с текущим снимком, возвращает current без разбора строк.
+     */
+    private DataSnapshot fetchSnapshot(DataSnapshot current) throws IOException {
+        System.out.println("🔄 Обновляем кэш данных из Google Sheets (batchGet)...");
+
+        BatchGetValuesResponse response = sheetsService.spreadsheets().values()
+            .batchGet(spreadsheetId)
+            .setRanges(SNAPSHOT_RANGES)
+            .execute();
+
+        List<ValueRange> ranges = response.getValueRanges();
+        if (ranges == null || ranges.size() != SNAPSHOT_RANGES.size()) {
+            throw new IOException("batchGet вернул " + (ranges != null ? ranges.size() : 0) +
+                    " диапазонов вместо " + SNAPSHOT_RANGES.size());
+        }
+
+        String contentHash = contentHash(ranges);
+        if (current != null && contentHash.equals(current.getContentHash())) {
+            System.out.println("✅ Данные в Google Sheets не изменились, снимок не пересобираем");
+            return current;
+        }
+
+        DataSnapshot fresh = new DataSnapshot(
+            googleSheetsService.parseSupplements(ranges.get(0).getValues()),
+            parseCategories(ranges.get(1).getValues()),
+            parseQuestions(ranges.get(2).getValues()),
+            parseAnswerScores(ranges.get(3).getValues()),
+            parseBaseScores(ranges.get(4).getValues()),
+            System.currentTimeMillis(),
+            contentHash);
+        System.out.println("✅ Кэш данных обновлен: добавок " + fresh.getSupplements().size() +
+                ", категорий " + fresh.getCategories().size() +
+                ", вопросов " + fresh.getQuestions().size() +
+                ", правил " + fresh.getAnswerScores().size() +
+                ", базовых баллов " + fresh.getBaseScores().size());
+        return fresh;
+    }
+
+    /**
+     * SHA-256 от сырых значений всех диапазонов ответа batchGet
+     */
+    private static String contentHash(List<ValueRange> ranges) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 недоступен", e);
+        }
+        for (ValueRange range : ranges) {
+            if (range.getValues() != null) {
+                for (List<Object> row : range.getValues()) {
+                    for (Object cell : row) {
+                        digest.update(String.valueOf(cell).getBytes(StandardCharsets.UTF_8));
+                        digest.update((byte) 0x1F); // разделитель ячеек
+                    }
+                    digest.update((byte) 0x1E); // разделитель строк
+                }
+            }
+            digest.update((byte) 0x1D); // разделитель диапазонов
+        }
+        return HexFormat.of().formatHex(digest.digest());
     }
 
     /**
-     * Загружает все категории (темы) из листа Categories
+     * Возвращает все категории (темы) из кэша
      */
     public List<String> loadCategories() throws IOException {
-        System.out.println("📊 Загружаем категории из Google Sheets...");
+        return getSnapshot().getCategories();
+    }
+
+    /**
+     * Возвращает все вопросы из кэша
+     */
+    public List<Question> loadQuestions() throws IOException {
+        return getSnapshot().getQuestions();
+    }
+
+    /**
+     * Возвращает правила начисления баллов из кэша
+     */
+    public List<AnswerScore> loadAnswerScores() throws IOException {
+        return getSnapshot().getAnswerScores();
+    }
+
+    /**
+     * Возвращает базовые баллы из кэша
+     */
+    public List<BaseScore> loadBaseScores() throws IOException {
+        return getSnapshot().getBaseScores();
+    }
+
+    /**
+     * Разбирает категории (темы) из диапазона листа Categories
+     */
+    private List<String> parseCategories(List<List<Object>> values) {
+        System.out.println("📊 Разбираем категории...");
         
         try {
-            ValueRange range = sheetsService.spreadsheets().values()
-                .get(spreadsheetId, CATEGORIES_SHEET + "!A2:B")
-                .execute();
-            
             List<String> categories = new ArrayList<>();
             
-            if (range.getValues() != null) {
-                for (List<Object> row : range.getValues()) {
+            if (values != null) {
+                for (List<Object> row : values) {
                     if (row.size() >= 2 && row.get(1) != null) {
                         String categoryName = row.get(1).toString().trim();
                         if (!categoryName.isEmpty()) {
@@ -65,20 +263,16 @@ public class GoogleSheetsDataService {
     }
 
     /**
-     * Загружает все вопросы из листа Questions
+     * Разбирает вопросы из диапазона листа Questions
      */
-    public List<Question> loadQuestions() throws IOException {
-        System.out.println("📊 Загружаем вопросы из Google Sheets...");
+    private List<Question> parseQuestions(List<List<Object>> values) {
+        System.out.println("📊 Разбираем вопросы...");
         
         try {
-            ValueRange range = sheetsService.spreadsheets().values()
-                .get(spreadsheetId, QUESTIONS_SHEET + "!A2:E")
-                .execute();
-            
             List<Question> questions = new ArrayList<>();
             
-            if (range.getValues() != null) {
-                for (List<Object> row : range.getValues()) {
+            if (values != null) {
+                for (List<Object> row : values) {
                     if (row.size() >= 5) {
                         try {
                             Question question = new Question();
@@ -106,21 +300,17 @@ public class GoogleSheetsDataService {
     }
 
     /**
-     * Загружает правила начисления баллов из листа AnswerScores
+     * Разбирает правила начисления баллов из диапазона листа AnswerScores
      */
-    public List<AnswerScore> loadAnswerScores() throws IOException {
-        System.out.println("📊 Загружаем правила начисления баллов из Google Sheets...");
+    private List<AnswerScore> parseAnswerScores(List<List<Object>> values) {
+        System.out.println("📊 Разбираем правила начисления баллов...");
         
         try {
-            ValueRange range = sheetsService.spreadsheets().values()
-                .get(spreadsheetId, ANSWER_SCORES_SHEET + "!A1:E")
-                .execute();
-            
             List<AnswerScore> answerScores = new ArrayList<>();
             
-            if (range.getValues() != null) {
+            if (values != null) {
                 boolean isFirstRow = true;
-                for (List<Object> row : range.getValues()) {
+                for (List<Object> row : values) {
                     // Пропускаем первую строку (заголовки)
                     if (isFirstRow) {
                         isFirstRow = false;
@@ -174,11 +364,7 @@ public class GoogleSheetsDataService {
      * Получает вопросы для конкретной категории
      */
     public List<Question> getQuestionsByCategory(String categoryName) throws IOException {
-        List<Question> allQuestions = loadQuestions();
-        
-        return allQuestions.stream()
-            .filter(q -> q.getCategory().equalsIgnoreCase(categoryName))
-            .collect(Collectors.toList());
+        return getSnapshot().getQuestionsByCategory(categoryName);
     }
 
     /**
@@ -189,27 +375,19 @@ public class GoogleSheetsDataService {
     }
 
     /**
-     * Загружает базовые баллы для добавок по темам из листа BaseScore
+     * Разбирает базовые баллы для добавок по темам из диапазона листа BaseScores
      */
-    public List<BaseScore> loadBaseScores() throws IOException {
-        System.out.println("📊 Загружаем базовые баллы из Google Sheets...");
-        System.out.println("🔍 Используем лист: " + BASE_SCORES_SHEET);
-        System.out.println("🔍 Диапазон: " + BASE_SCORES_SHEET + "!A2:D");
+    private List<BaseScore> parseBaseScores(List<List<Object>> values) {
+        System.out.println("📊 Разбираем базовые баллы...");
         
         try {
-            ValueRange range = sheetsService.spreadsheets().values()
-                .get(spreadsheetId, BASE_SCORES_SHEET + "!A2:D")
-                .execute();
-            
-            System.out.println("🔍 Получен ответ от Google Sheets");
-            
             List<BaseScore> baseScores = new ArrayList<>();
             
-            if (range.getValues() != null) {
-                System.out.println("🔍 Найдено строк в ответе: " + range.getValues().size());
+            if (values != null) {
+                System.out.println("🔍 Найдено строк: " + values.size());
                 
-                for (int i = 0; i < range.getValues().size(); i++) {
-                    List<Object> row = range.getValues().get(i);
+                for (int i = 0; i < values.size(); i++) {
+                    List<Object> row = values.get(i);
                     System.out.println("🔍 Обрабатываем строку " + (i + 1) + ": " + row);
                     
                     if (row.size() >= 3) { // Минимум 3 колонки: код добавки, тема, баллы
@@ -249,7 +427,7 @@ public class GoogleSheetsDataService {
                     }
                 }
             } else {
-                System.out.println("⚠️ Ответ от Google Sheets пустой");
+                System.out.println("⚠️ Лист базовых баллов пустой");
             }
             
             System.out.println("✅ Загружено базовых баллов: " + baseScores.size());
@@ -262,6 +440,66 @@ public class GoogleSheetsDataService {
         }
     }
 
+    /**
+     * Неизменяемый снимок данных листов Supplements, Categories, Questions, AnswerScores и BaseScores.
+     * Каждый новый снимок публикуется как событие приложения.
+     */
+    public static final class DataSnapshot {
+        private final List<Supplement> supplements;
+        private final List<String> categories;
+        private final List<Question> questions;
+        private final List<AnswerScore> answerScores;
+        private final List<BaseScore> baseScores;
+        private final Map<String, List<Question>> questionsByCategory;
+        private final long loadedAt;
+        private final String contentHash;
+
+        public DataSnapshot(List<Supplement> supplements, List<String> categories, List<Question> questions,
+                            List<AnswerScore> answerScores, List<BaseScore> baseScores) {
+            this(supplements, categories, questions, answerScores, baseScores, System.currentTimeMillis(), null);
+        }
+
+        /**
+         * Снимок с известным временем загрузки и хэшем исходных данных (например, прочитанный с диска)
+         */
+        public DataSnapshot(List<Supplement> supplements, List<String> categories, List<Question> questions,
+                            List<AnswerScore> answerScores, List<BaseScore> baseScores,
+                            long loadedAt, String contentHash) {
+            this.supplements = List.copyOf(supplements);
+            this.categories = List.copyOf(categories);
+            this.questions = List.copyOf(questions);
+            this.answerScores = List.copyOf(answerScores);
+            this.baseScores = List.copyOf(baseScores);
+
+            Map<String, List<Question>> byCategory = new HashMap<>();
+            for (Question question : this.questions) {
+                byCategory.computeIfAbsent(question.getCategory().toLowerCase(Locale.ROOT), k -> new ArrayList<>()).add(question);
+            }
+            byCategory.replaceAll((category, list) -> List.copyOf(list));
+            this.questionsByCategory = Map.copyOf(byCategory);
+            this.loadedAt = loadedAt;
+            this.contentHash = contentHash;
+        }
+
+        public List<Supplement> getSupplements() { return supplements; }
+        public List<String> getCategories() { return categories; }
+        public List<Question> getQuestions() { return questions; }
+        public List<AnswerScore> getAnswerScores() { return answerScores; }
+        public List<BaseScore> getBaseScores() { return baseScores; }
+        public long getLoadedAt() { return loadedAt; }
+        public String getContentHash() { return contentHash; }
+
+        /**
+         * Вопросы категории (без учета регистра)
+         */
+        public List<Question> getQuestionsByCategory(String categoryName) {
+            if (categoryName == null) {
+                return Collections.emptyList();
+            }
+            return questionsByCategory.getOrDefault(categoryName.toLowerCase(Locale.ROOT), Collections.emptyList());
+        }
+    }
+
     // Внутренние классы для представления данных
     public static class Question {
         private String id;
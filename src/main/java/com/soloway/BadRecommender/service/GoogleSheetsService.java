@@ -22,6 +22,9 @@ public class GoogleSheetsService {
     private static final String SUPPLEMENTS_SHEET = "Supplements";
     private static final String CATEGORIES_SHEET = "Categories";
 
+    // Пропускаем заголовок, включаем колонки H-J для описания, изображения и цены
+    static final String SUPPLEMENTS_RANGE = SUPPLEMENTS_SHEET + "!A2:J";
+
     @Autowired
     public GoogleSheetsService(Sheets sheetsService, @Value("${google.sheets.spreadsheet-id}") String spreadsheetId) {
         this.sheetsService = sheetsService;
@@ -34,15 +37,20 @@ public class GoogleSheetsService {
     public List<Supplement> loadSupplements() throws IOException {
         System.out.println("📊 Загружаем добавки из Google Sheets...");
         
-        String range = SUPPLEMENTS_SHEET + "!A2:J"; // Пропускаем заголовок, включаем колонки H-J для описания, изображения и цены
-        System.out.println("🔍 Запрашиваем диапазон: " + range);
+        System.out.println("🔍 Запрашиваем диапазон: " + SUPPLEMENTS_RANGE);
         
         ValueRange response = sheetsService.spreadsheets().values()
-                .get(spreadsheetId, range)
+                .get(spreadsheetId, SUPPLEMENTS_RANGE)
                 .execute();
 
-        List<List<Object>> values = response.getValues();
-        System.out.println("📋 Получено строк из Google Sheets: " + (values != null ? values.size() : 0));
+        return parseSupplements(response.getValues());
+    }
+
+    /**
+     * Разбирает строки диапазона листа Supplements в список добавок
+     */
+    public List<Supplement> parseSupplements(List<List<Object>> values) {
+        System.out.println("📋 Получено строк добавок: " + (values != null ? values.size() : 0));
         
         if (values == null || values.isEmpty()) {
             System.out.println("⚠️ Данные не найдены в Google Sheets");
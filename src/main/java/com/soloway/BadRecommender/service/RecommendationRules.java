@@ -0,0 +1,743 @@
+package com.soloway.BadRecommender.service;
+
+import com.soloway.BadRecommender.model.Supplement;
+import com.soloway.BadRecommender.model.UserAnswer;
+
+import java.util.*;
+
+/**
+ * Декларативная таблица правил расчета рекомендаций (бывшие switch в RecommendationCalculationService).
+ *
+ * Каждое правило ссылается на добавку по фрагменту названия, как и прежние проверки
+ * supplement.getName().contains(...). Таблица компилируется против каталога один раз:
+ * каждый уникальный фрагмент один раз превращается в битовое множество индексов добавок,
+ * а правила - в плоские массивы (индекс добавки, баллы), сгруппированные по ключу (questionId, answer).
+ * Фрагменты, не совпавшие ни с одной добавкой, попадают в отчет getUnmatchedPatterns().
+ */
+public final class RecommendationRules {
+
+    /** Базовый балл за совпадение тега добавки с выбранной темой */
+    private static final int TOPIC_MATCH_SCORE = 3;
+
+    /** Маркер правила, обнуляющего накопленные за ответы баллы добавки (противопоказание) */
+    private static final int RESET = Integer.MIN_VALUE;
+
+    private static final int[] NO_ACTIONS = new int[0];
+
+    // Стартовые баллы по теме: начисляются только добавкам, у которых есть тег темы
+    private static final Rule[] INITIAL_RULES = {
+        bonus("energy", "Energy", 2),
+        bonus("energy", "Coenzyme Q10", 1),
+        bonus("energy", "Iron bisglycinate", 1),
+        bonus("energy", "Tyrosine", 1),
+
+        bonus("sleep", "Magnesium B6", 2),
+        bonus("sleep", "5-HTP", 2),
+        bonus("sleep", "SAMe", 1),
+
+        bonus("weight", "Appetite Control", 3),
+        bonus("weight", "Active Slim", 2),
+        bonus("weight", "Comfort Slim", 2),
+        bonus("weight", "Alpha-lipoic acid", 2),
+
+        bonus("skin", "Collagen", 3),
+        bonus("skin", "Glutathione", 3),
+        bonus("skin", "Hyaluronic acid", 2),
+        bonus("skin", "Hair Complex", 2),
+        bonus("skin", "Biotin", 1),
+
+        bonus("digestion", "Prebio Complex", 3),
+        bonus("digestion", "Synbiotic", 2),
+        bonus("digestion", "Curcumin", 2),
+        bonus("digestion", "SAMe", 1),
+
+        bonus("joints", "Glucosamine", 3),
+        bonus("joints", "Collagen", 2),
+        bonus("joints", "Hyaluronic acid", 2),
+        bonus("joints", "Vitamin D3", 2),
+
+        bonus("immunity", "Zinc", 2),
+        bonus("immunity", "Selenium", 2),
+        bonus("immunity", "Lactoferrin", 2),
+        bonus("immunity", "Vitamin C", 2),
+        bonus("immunity", "Gingko Biloba", 2),
+        bonus("immunity", "Vitamin D3", 2),
+
+        bonus("heart", "Omega-3", 3),
+        bonus("heart", "Coenzyme Q10", 2),
+        bonus("heart", "Resveratrol", 2),
+        bonus("heart", "TMG", 2),
+        bonus("heart", "Curcumin", 2),
+
+        bonus("thyroid", "Tyrosine", 3),
+        bonus("thyroid", "Selenium", 1),
+
+        bonus("cycle", "Inositol", 3),
+        bonus("cycle", "DIM", 2),
+        bonus("cycle", "Zinc", 1),
+
+        bonus("menopause", "Lignagallat", 3),
+        bonus("menopause", "DIM", 1),
+        bonus("menopause", "Omega-3", 1),
+
+        bonus("prostate", "nO-Prost", 3),
+        bonus("prostate", "Men's Formula", 2),
+        bonus("prostate", "Zinc", 1),
+
+        bonus("iron", "Iron bisglycinate", 3),
+        bonus("iron", "Iron Chelate", 2),
+        bonus("iron", "Lactoferrin", 3),
+    };
+
+    // Баллы за ответы на уточняющие вопросы; reset обнуляет накопленные за ответы баллы добавки
+    private static final Rule[] ANSWER_RULES = {
+        add("afternoon_sleep", "sometimes", "Energy", 1),
+        add("afternoon_sleep", "sometimes", "CoQ10", 1),
+        add("afternoon_sleep", "almost_everyday", "Energy", 2),
+        add("afternoon_sleep", "almost_everyday", "CoQ10", 2),
+
+        add("coffee_amount", "2-3", "Magnesium B6", 1),
+        add("coffee_amount", "4+", "Magnesium B6", 2),
+
+        add("sleep_time", "yes", "5-HTP", 3),
+        add("sleep_time", "yes", "Magnesium B6", 2),
+
+        add("anxiety_level", "7-8", "SAMe", 1),
+        add("anxiety_level", "7-8", "Magnesium B6", 1),
+        add("anxiety_level", "9-10", "SAMe", 2),
+        add("anxiety_level", "9-10", "Magnesium B6", 2),
+
+        add("weight_difficulty", "hunger", "Appetite Control", 3),
+
+        add("dry_skin", "yes", "Hyaluronic acid", 3),
+        add("dry_skin", "yes", "Collagen", 2),
+
+        add("bloating", "yes", "Prebio Complex", 3),
+
+        add("frequent_colds", "yes", "Zinc", 2),
+        add("frequent_colds", "yes", "Vitamin D3", 1),
+
+        add("ldl_level", "yes", "Omega-3", 3),
+
+        add("tsh_level", "yes", "Tyrosine", 3),
+        add("tsh_level", "yes", "Selenium", 1),
+
+        add("cycle_length", "yes", "Inositol", 3),
+
+        add("hot_flashes", "yes", "Lignagallat", 3),
+
+        add("urine_stream", "yes", "nO-Prost", 3),
+
+        add("ferritin_level", "yes", "Iron bisglycinate", 3),
+
+        add("iron_tolerance", "yes", "Lactoferrin", 3),
+        reset("iron_tolerance", "yes", "Iron bisglycinate"),
+
+        add("iron_deficiency_doctor", "да", "Iron Chelate", 3),
+        add("iron_deficiency_doctor", "не знаю", "Iron Chelate", 1),
+
+        add("weakness_fatigue", "немного", "Iron Chelate", 2),
+        add("weakness_fatigue", "сильно", "Iron Chelate", 3),
+
+        add("dizziness_shortness", "иногда", "Iron Chelate", 2),
+        add("dizziness_shortness", "часто", "Iron Chelate", 3),
+
+        add("blood_loss", "было", "Iron Chelate", 2),
+        add("blood_loss", "да, регулярно", "Iron Chelate", 3),
+
+        add("vegetarian_vegan", "да", "Iron Chelate", 3),
+        add("vegetarian_vegan", "да", "Lactoferrin", 2),
+
+        add("gut_sensitivity", "немного", "Lactoferrin", 2),
+        add("gut_sensitivity", "выраженно", "Lactoferrin", 3),
+
+        add("morning_energy", "иногда", "Tyrosine", 2),
+        add("morning_energy", "иногда", "Energy", 2),
+        add("morning_energy", "почти всегда", "Tyrosine", 3),
+        add("morning_energy", "почти всегда", "Energy", 3),
+
+        add("afternoon_crash", "иногда", "Energy", 2),
+        add("afternoon_crash", "иногда", "CoQ10", 1),
+        add("afternoon_crash", "почти всегда", "Energy", 3),
+        add("afternoon_crash", "почти всегда", "CoQ10", 2),
+
+        add("post_infection_fatigue", "было, но прошло", "CoQ10", 2),
+        add("post_infection_fatigue", "было, но прошло", "Energy", 1),
+        add("post_infection_fatigue", "да, держится", "CoQ10", 3),
+        add("post_infection_fatigue", "да, держится", "Energy", 3),
+
+        add("exercise_fatigue", "иногда", "CoQ10", 2),
+        add("exercise_fatigue", "иногда", "Energy", 2),
+        add("exercise_fatigue", "почти всегда", "CoQ10", 3),
+        add("exercise_fatigue", "почти всегда", "Energy", 3),
+
+        add("iron_anemia_doctor", "не знаю", "Iron Chelate", 2),
+        add("iron_anemia_doctor", "не знаю", "CoQ10", 1),
+        add("iron_anemia_doctor", "да", "Iron Chelate", 3),
+        add("iron_anemia_doctor", "да", "CoQ10", 2),
+
+        add("caffeine_sensitivity", "иногда", "Magnesium B6", 2),
+        add("caffeine_sensitivity", "часто", "Magnesium B6", 3),
+
+        add("sleep_onset", "иногда", "5-HTP", 2),
+        add("sleep_onset", "иногда", "Magnesium B6", 2),
+        add("sleep_onset", "почти всегда", "5-HTP", 3),
+        add("sleep_onset", "почти всегда", "Magnesium B6", 3),
+
+        add("night_awakenings", "иногда", "Magnesium B6", 2),
+        add("night_awakenings", "иногда", "5-HTP", 2),
+        add("night_awakenings", "почти всегда", "Magnesium B6", 3),
+        add("night_awakenings", "почти всегда", "5-HTP", 3),
+
+        add("chronic_stress", "иногда", "Complex B-SAMe", 2),
+        add("chronic_stress", "иногда", "Magnesium B6", 2),
+        add("chronic_stress", "почти всегда", "Complex B-SAMe", 3),
+        add("chronic_stress", "почти всегда", "Magnesium B6", 3),
+
+        add("low_motivation", "иногда", "Complex B-SAMe", 2),
+        add("low_motivation", "иногда", "5-HTP", 2),
+        add("low_motivation", "часто", "Complex B-SAMe", 3),
+        add("low_motivation", "часто", "5-HTP", 3),
+
+        add("screen_before_bed", "иногда", "Magnesium B6", 1),
+        add("screen_before_bed", "иногда", "5-HTP", 1),
+        add("screen_before_bed", "почти всегда", "Magnesium B6", 2),
+        add("screen_before_bed", "почти всегда", "5-HTP", 2),
+
+        add("stress_impact", "скорее да", "Magnesium B6", 2),
+        add("stress_impact", "скорее да", "Complex B-SAMe", 2),
+        add("stress_impact", "скорее да", "5-HTP", 1),
+        add("stress_impact", "да", "Magnesium B6", 3),
+        add("stress_impact", "да", "Complex B-SAMe", 3),
+        add("stress_impact", "да", "5-HTP", 2),
+
+        add("portion_control", "иногда", "Appetite Control", 2),
+        add("portion_control", "иногда", "Active Slim", 1),
+        add("portion_control", "почти всегда", "Appetite Control", 3),
+        add("portion_control", "почти всегда", "Active Slim", 2),
+
+        add("night_snacking", "иногда", "Comfort Slim", 2),
+        add("night_snacking", "иногда", "Appetite Control", 1),
+        add("night_snacking", "почти всегда", "Comfort Slim", 3),
+        add("night_snacking", "почти всегда", "Appetite Control", 2),
+
+        add("late_dinner", "иногда", "Comfort Slim", 1),
+        add("late_dinner", "иногда", "Active Slim", 1),
+        add("late_dinner", "часто", "Comfort Slim", 2),
+        add("late_dinner", "часто", "Active Slim", 2),
+
+        add("skip_breakfast", "иногда", "Alpha-lipoic", 1),
+        add("skip_breakfast", "иногда", "Appetite Control", 1),
+        add("skip_breakfast", "часто", "Alpha-lipoic", 2),
+        add("skip_breakfast", "часто", "Appetite Control", 2),
+
+        add("waist_increase", "немного", "Alpha-lipoic", 2),
+        add("waist_increase", "выраженно", "Alpha-lipoic", 3),
+
+        add("deep_acne", "иногда", "Omega-3", 2),
+        add("deep_acne", "иногда", "Glutathione", 1),
+        add("deep_acne", "часто", "Omega-3", 3),
+        add("deep_acne", "часто", "Glutathione", 2),
+
+        add("acne_marks", "иногда", "Glutathione", 2),
+        add("acne_marks", "иногда", "Omega-3", 1),
+        add("acne_marks", "часто", "Glutathione", 3),
+        add("acne_marks", "часто", "Omega-3", 2),
+
+        add("wrinkles_elasticity", "немного", "Collagen", 2),
+        add("wrinkles_elasticity", "немного", "Hyaluronic", 1),
+        add("wrinkles_elasticity", "выраженно", "Collagen", 3),
+        add("wrinkles_elasticity", "выраженно", "Hyaluronic", 2),
+
+        add("hair_loss", "немного", "Hair Complex", 2),
+        add("hair_loss", "немного", "Biotin", 1),
+        add("hair_loss", "заметно", "Hair Complex", 3),
+        add("hair_loss", "заметно", "Biotin", 2),
+
+        add("scalp_issues", "иногда", "Hair Complex", 2),
+        add("scalp_issues", "иногда", "Zinc", 1),
+        add("scalp_issues", "часто", "Hair Complex", 3),
+        add("scalp_issues", "часто", "Zinc", 2),
+
+        add("skin_irritation", "иногда", "Omega-3", 2),
+        add("skin_irritation", "иногда", "Glutathione", 1),
+        add("skin_irritation", "часто", "Omega-3", 3),
+        add("skin_irritation", "часто", "Glutathione", 2),
+
+        add("recent_antibiotics", "да", "Synbiotic", 3),
+        add("recent_antibiotics", "не помню", "Synbiotic", 3),
+
+        add("dairy_intolerance", "иногда", "Prebio", 2),
+        add("dairy_intolerance", "иногда", "Synbiotic", 1),
+        add("dairy_intolerance", "часто", "Prebio", 3),
+        add("dairy_intolerance", "часто", "Synbiotic", 2),
+
+        add("post_meal_discomfort", "иногда", "Curcumin", 1),
+        add("post_meal_discomfort", "часто", "Curcumin", 2),
+
+        add("ibs_diagnosis", "да", "Curcumin", 3),
+        add("ibs_diagnosis", "не знаю", "Curcumin", 3),
+        add("ibs_diagnosis", "да", "Synbiotic", 2),
+        add("ibs_diagnosis", "не знаю", "Synbiotic", 2),
+
+        add("stress_gut_symptoms", "иногда", "Complex B-SAMe", 2),
+        add("stress_gut_symptoms", "иногда", "Prebio", 1),
+        add("stress_gut_symptoms", "часто", "Complex B-SAMe", 3),
+        add("stress_gut_symptoms", "часто", "Prebio", 2),
+
+        add("bloating_sweet_cravings", "иногда", "Synbiotic", 1),
+        add("bloating_sweet_cravings", "часто", "Synbiotic", 2),
+
+        add("regular_exercise", "1-2 раза в неделю", "Collagen", 1),
+        add("regular_exercise", "1-2 раза в неделю", "Glucosamine", 1),
+        add("regular_exercise", "3 и более раз в неделю", "Collagen", 2),
+        add("regular_exercise", "3 и более раз в неделю", "Glucosamine", 2),
+
+        add("recent_injuries", "да", "Glucosamine", 2),
+        add("recent_injuries", "да", "Collagen", 2),
+        add("recent_injuries", "повторные", "Glucosamine", 3),
+        add("recent_injuries", "повторные", "Collagen", 3),
+
+        add("joint_dryness", "немного", "Hyaluronic", 2),
+        add("joint_dryness", "немного", "Collagen", 1),
+        add("joint_dryness", "выраженно", "Hyaluronic", 3),
+        add("joint_dryness", "выраженно", "Collagen", 2),
+
+        add("age_category", "35–49 лет", "Collagen", 2),
+        add("age_category", "35–49 лет", "Glucosamine", 1),
+        add("age_category", "50+ лет", "Collagen", 3),
+        add("age_category", "50+ лет", "Glucosamine", 2),
+
+        add("knee_pain", "иногда", "Glucosamine", 2),
+        add("knee_pain", "иногда", "Curcumin", 1),
+        add("knee_pain", "часто", "Glucosamine", 3),
+        add("knee_pain", "часто", "Curcumin", 2),
+
+        add("bone_density_risk", "да", "Vitamin D3", 3),
+        add("bone_density_risk", "не знаю", "Vitamin D3", 3),
+
+        add("social_contact", "иногда", "Lactoferrin", 1),
+        add("social_contact", "иногда", "Vitamin C", 1),
+        add("social_contact", "иногда", "Zinc", 1),
+        add("social_contact", "часто", "Lactoferrin", 2),
+        add("social_contact", "часто", "Vitamin C", 2),
+        add("social_contact", "часто", "Zinc", 2),
+
+        add("prolonged_colds", "иногда", "Vitamin C", 2),
+        add("prolonged_colds", "иногда", "Zinc", 1),
+        add("prolonged_colds", "иногда", "Lactoferrin", 1),
+        add("prolonged_colds", "часто", "Vitamin C", 3),
+        add("prolonged_colds", "часто", "Zinc", 2),
+        add("prolonged_colds", "часто", "Lactoferrin", 2),
+
+        add("frequent_infections", "иногда", "Lactoferrin", 2),
+        add("frequent_infections", "иногда", "Vitamin C", 2),
+        add("frequent_infections", "часто", "Lactoferrin", 3),
+        add("frequent_infections", "часто", "Vitamin C", 3),
+
+        add("cold_extremities", "иногда", "Ginkgo Biloba", 2),
+        add("cold_extremities", "иногда", "Vitamin C", 1),
+        add("cold_extremities", "часто", "Ginkgo Biloba", 3),
+        add("cold_extremities", "часто", "Vitamin C", 2),
+
+        add("autoimmune_thyroid", "да", "Selenium", 3),
+        add("autoimmune_thyroid", "не знаю", "Selenium", 3),
+        add("autoimmune_thyroid", "да", "Vitamin D3", 2),
+        add("autoimmune_thyroid", "не знаю", "Vitamin D3", 2),
+
+        add("sleep_deprivation", "1-2 раза в неделю", "Vitamin C", 1),
+        add("sleep_deprivation", "1-2 раза в неделю", "Zinc", 1),
+        add("sleep_deprivation", "3-4 раза в неделю или чаще", "Vitamin C", 2),
+        add("sleep_deprivation", "3-4 раза в неделю или чаще", "Zinc", 2),
+
+        add("family_cardiovascular", "да", "Omega-3", 3),
+        add("family_cardiovascular", "не знаю", "Omega-3", 3),
+        add("family_cardiovascular", "да", "Resveratrol", 2),
+        add("family_cardiovascular", "не знаю", "Resveratrol", 2),
+        add("family_cardiovascular", "да", "B-TMG", 2),
+        add("family_cardiovascular", "не знаю", "B-TMG", 2),
+
+        add("exercise_fatigue_heart", "иногда", "CoQ10", 2),
+        add("exercise_fatigue_heart", "иногда", "Omega-3", 1),
+        add("exercise_fatigue_heart", "часто", "CoQ10", 3),
+        add("exercise_fatigue_heart", "часто", "Omega-3", 2),
+
+        add("homocysteine_elevated", "да", "B-TMG", 3),
+        add("homocysteine_elevated", "не знаю", "B-TMG", 3),
+
+        add("inflammation_joints", "да", "Curcumin", 3),
+        add("inflammation_joints", "не знаю", "Curcumin", 3),
+        add("inflammation_joints", "да", "Omega-3", 2),
+        add("inflammation_joints", "не знаю", "Omega-3", 2),
+        add("inflammation_joints", "да", "Resveratrol", 2),
+        add("inflammation_joints", "не знаю", "Resveratrol", 2),
+
+        add("sedentary_lifestyle", "иногда", "Omega-3", 1),
+        add("sedentary_lifestyle", "иногда", "Resveratrol", 1),
+        add("sedentary_lifestyle", "да", "Omega-3", 2),
+        add("sedentary_lifestyle", "да", "Resveratrol", 2),
+
+        add("circulation_issues", "иногда", "Resveratrol", 2),
+        add("circulation_issues", "иногда", "CoQ10", 1),
+        add("circulation_issues", "часто", "Resveratrol", 3),
+        add("circulation_issues", "часто", "CoQ10", 2),
+
+        add("cold_sensitivity", "иногда", "Tyrosine", 2),
+        add("cold_sensitivity", "часто", "Tyrosine", 3),
+
+        add("tsh_elevated", "не знаю", "Tyrosine", 2),
+        add("tsh_elevated", "не знаю", "Selenium", 1),
+        add("tsh_elevated", "да", "Tyrosine", 3),
+        add("tsh_elevated", "да", "Selenium", 2),
+
+        add("autoimmune_thyroid_specific", "да", "Selenium", 3),
+        add("autoimmune_thyroid_specific", "не знаю", "Selenium", 3),
+
+        add("constipation", "да", "Selenium", 2),
+        add("constipation", "да", "Tyrosine", 2),
+
+        add("voice_neck_discomfort", "иногда", "Selenium", 2),
+        add("voice_neck_discomfort", "часто", "Selenium", 3),
+
+        add("evening_energy_drop", "иногда", "Tyrosine", 2),
+        add("evening_energy_drop", "часто", "Tyrosine", 3),
+
+        add("irregular_cycle", "иногда", "Inositol", 2),
+        add("irregular_cycle", "часто", "Inositol", 3),
+
+        add("pms_symptoms", "умеренно", "DIM", 2),
+        add("pms_symptoms", "сильно", "DIM", 3),
+
+        add("premenstrual_acne", "иногда", "Zinc", 2),
+        add("premenstrual_acne", "иногда", "DIM", 1),
+        add("premenstrual_acne", "часто", "Zinc", 3),
+        add("premenstrual_acne", "часто", "DIM", 2),
+
+        add("menstrual_pain", "иногда", "Zinc", 2),
+        add("menstrual_pain", "иногда", "DIM", 1),
+        add("menstrual_pain", "часто", "Zinc", 3),
+        add("menstrual_pain", "часто", "DIM", 2),
+
+        add("heavy_periods", "иногда", "DIM", 2),
+        add("heavy_periods", "иногда", "Zinc", 1),
+        add("heavy_periods", "часто", "DIM", 3),
+        add("heavy_periods", "часто", "Zinc", 2),
+
+        add("pregnancy_planning", "да", "Inositol", 3),
+
+        add("hot_flashes_frequent", "да", "Lignagallat", 3),
+        add("hot_flashes_frequent", "да", "DIM", 2),
+
+        add("night_hot_flashes", "иногда", "Lignagallat", 2),
+        add("night_hot_flashes", "иногда", "Omega-3", 1),
+        add("night_hot_flashes", "часто", "Lignagallat", 3),
+        add("night_hot_flashes", "часто", "Omega-3", 2),
+
+        add("mood_changes_menopause", "немного", "DIM", 2),
+        add("mood_changes_menopause", "немного", "Omega-3", 1),
+        add("mood_changes_menopause", "сильно", "DIM", 3),
+        add("mood_changes_menopause", "сильно", "Omega-3", 2),
+
+        add("joint_pain_menopause", "немного", "Omega-3", 2),
+        add("joint_pain_menopause", "немного", "Curcumin", 1),
+        add("joint_pain_menopause", "выраженно", "Omega-3", 3),
+        add("joint_pain_menopause", "выраженно", "Curcumin", 2),
+
+        add("weight_gain_menopause", "немного", "DIM", 2),
+        add("weight_gain_menopause", "немного", "Omega-3", 1),
+        add("weight_gain_menopause", "заметно", "DIM", 3),
+        add("weight_gain_menopause", "заметно", "Omega-3", 2),
+
+        add("family_hormone_cancer", "да", "DIM", 3),
+        add("family_hormone_cancer", "не знаю", "DIM", 3),
+
+        add("urinary_symptoms", "иногда", "nO-Prost Complex", 2),
+        add("urinary_symptoms", "часто", "nO-Prost Complex", 3),
+
+        add("energy_libido_decline", "немного", "Men's Formula", 2),
+        add("energy_libido_decline", "немного", "Zinc", 1),
+        add("energy_libido_decline", "немного", "Omega-3", 1),
+        add("energy_libido_decline", "сильно", "Men's Formula", 3),
+        add("energy_libido_decline", "сильно", "Zinc", 2),
+        add("energy_libido_decline", "сильно", "Omega-3", 2),
+
+        add("prostate_discomfort", "иногда", "nO-Prost Complex", 2),
+        add("prostate_discomfort", "часто", "nO-Prost Complex", 3),
+
+        add("male_hair_loss", "немного", "Zinc", 2),
+        add("male_hair_loss", "выраженно", "Zinc", 3),
+
+        add("recovery_time", "иногда", "Men's Formula", 2),
+        add("recovery_time", "иногда", "Omega-3", 1),
+        add("recovery_time", "часто", "Men's Formula", 3),
+        add("recovery_time", "часто", "Omega-3", 2),
+
+        add("red_meat_consumption", "1-4 раза в неделю", "Omega-3", 1),
+        add("red_meat_consumption", "каждый день", "Omega-3", 2),
+
+        add("fish_consumption", "почти никогда", "Omega-3", 3),
+        add("fish_consumption", "реже 1 раза в неделю", "Omega-3", 3),
+
+        add("coffee_daily", "2–3", "Magnesium B6", 2),
+        add("coffee_daily", "4+", "Magnesium B6", 3),
+
+        add("physical_activity", "3–4", "CoQ10", 2),
+        add("physical_activity", "3–4", "Magnesium B6", 1),
+        add("physical_activity", "5+", "CoQ10", 3),
+        add("physical_activity", "5+", "Magnesium B6", 2),
+
+        add("smoking_vaping", "иногда", "Vitamin C", 2),
+        add("smoking_vaping", "иногда", "Omega-3", 1),
+        add("smoking_vaping", "регулярно", "Vitamin C", 3),
+        add("smoking_vaping", "регулярно", "Omega-3", 2),
+        add("smoking_vaping", "регулярно", "Curcumin", 2),
+
+        add("sweet_cravings", "иногда", "Alpha-lipoic", 2),
+        add("sweet_cravings", "часто", "Alpha-lipoic", 3),
+
+        add("digestive_issues", "иногда", "Prebio", 2),
+        add("digestive_issues", "иногда", "Synbiotic", 1),
+        add("digestive_issues", "часто", "Prebio", 3),
+        add("digestive_issues", "часто", "Synbiotic", 2),
+
+        add("cold_frequency", "2–3", "Zinc", 2),
+        add("cold_frequency", "2–3", "Vitamin C", 1),
+        add("cold_frequency", "4+", "Zinc", 3),
+        add("cold_frequency", "4+", "Vitamin C", 2),
+        add("cold_frequency", "4+", "Lactoferrin", 2),
+    };
+
+    // Баллы за общие факторы (кофе, тренировки, курение)
+    private static final Rule[] FACTOR_RULES = {
+        add("coffee", "2-3", "Magnesium B6", 1),
+        add("coffee", "4+", "Magnesium B6", 2),
+
+        add("training", "4+", "Magnesium B6", 1),
+        add("training", "4+", "CoQ10", 1),
+
+        add("smoking", "5-9", "Omega-3", 1),
+        add("smoking", "5-9", "CoQ10", 1),
+        add("smoking", "5-9", "Selenium", 1),
+        add("smoking", "10+", "Omega-3", 2),
+        add("smoking", "10+", "CoQ10", 2),
+        add("smoking", "10+", "Selenium", 2),
+    };
+
+    private RecommendationRules() {
+    }
+
+    /**
+     * Компилирует таблицу правил против каталога добавок
+     */
+    public static Compiled compile(List<Supplement> supplements) {
+        Supplement[] catalog = supplements.toArray(new Supplement[0]);
+
+        // Каждый фрагмент названия ищется в каталоге ровно один раз
+        Map<String, BitSet> patternMatches = new TreeMap<>();
+        for (Rule[] table : List.of(INITIAL_RULES, ANSWER_RULES, FACTOR_RULES)) {
+            for (Rule rule : table) {
+                patternMatches.computeIfAbsent(rule.pattern, pattern -> matching(catalog, pattern));
+            }
+        }
+
+        // Стартовые баллы: тема -> вектор по индексам добавок
+        Map<String, int[]> initial = new HashMap<>();
+        for (int i = 0; i < catalog.length; i++) {
+            Set<String> tags = catalog[i].getTags();
+            if (tags == null) {
+                continue;
+            }
+            for (String topic : tags) {
+                if (topic == null) {
+                    continue;
+                }
+                int[] vector = initial.computeIfAbsent(topic, k -> new int[catalog.length]);
+                vector[i] = TOPIC_MATCH_SCORE;
+            }
+        }
+        for (Rule rule : INITIAL_RULES) {
+            int[] vector = initial.get(rule.key);
+            if (vector == null) {
+                continue;
+            }
+            BitSet matches = patternMatches.get(rule.pattern);
+            for (int ordinal = matches.nextSetBit(0); ordinal >= 0; ordinal = matches.nextSetBit(ordinal + 1)) {
+                if (catalog[ordinal].getTags().contains(rule.key)) {
+                    vector[ordinal] += rule.delta;
+                }
+            }
+        }
+
+        Map<String, Integer> matchCounts = new LinkedHashMap<>();
+        for (Map.Entry<String, BitSet> entry : patternMatches.entrySet()) {
+            matchCounts.put(entry.getKey(), entry.getValue().cardinality());
+        }
+
+        return new Compiled(catalog, Map.copyOf(initial),
+                compileActions(patternMatches, ANSWER_RULES), compileActions(patternMatches, FACTOR_RULES),
+                Collections.unmodifiableMap(matchCounts));
+    }
+
+    /**
+     * Группирует правила по (questionId, answer) в плоские массивы пар (индекс добавки, баллы или RESET)
+     * с сохранением порядка объявления
+     */
+    private static Map<String, int[]> compileActions(Map<String, BitSet> patternMatches, Rule[] rules) {
+        Map<String, List<int[]>> grouped = new LinkedHashMap<>();
+        for (Rule rule : rules) {
+            List<int[]> actions = grouped.computeIfAbsent(actionKey(rule.key, rule.answer), k -> new ArrayList<>());
+            BitSet matches = patternMatches.get(rule.pattern);
+            for (int ordinal = matches.nextSetBit(0); ordinal >= 0; ordinal = matches.nextSetBit(ordinal + 1)) {
+                actions.add(new int[] { ordinal, rule.reset ? RESET : rule.delta });
+            }
+        }
+        Map<String, int[]> compiled = new HashMap<>();
+        for (Map.Entry<String, List<int[]>> entry : grouped.entrySet()) {
+            List<int[]> actions = entry.getValue();
+            if (actions.isEmpty()) {
+                continue;
+            }
+            int[] flat = new int[actions.size() * 2];
+            for (int i = 0; i < actions.size(); i++) {
+                flat[i * 2] = actions.get(i)[0];
+                flat[i * 2 + 1] = actions.get(i)[1];
+            }
+            compiled.put(entry.getKey(), flat);
+        }
+        return Map.copyOf(compiled);
+    }
+
+    /**
+     * Индексы добавок, в названии которых есть фрагмент (с учетом регистра, как String.contains)
+     */
+    private static BitSet matching(Supplement[] catalog, String pattern) {
+        BitSet ordinals = new BitSet(catalog.length);
+        for (int i = 0; i < catalog.length; i++) {
+            String name = catalog[i].getName();
+            if (name != null && name.contains(pattern)) {
+                ordinals.set(i);
+            }
+        }
+        return ordinals;
+    }
+
+    private static String actionKey(String questionId, String answer) {
+        return questionId + '\u0000' + answer;
+    }
+
+    private static Rule bonus(String topic, String pattern, int delta) {
+        return new Rule(topic, null, pattern, delta, false);
+    }
+
+    private static Rule add(String questionId, String answer, String pattern, int delta) {
+        return new Rule(questionId, answer, pattern, delta, false);
+    }
+
+    private static Rule reset(String questionId, String answer, String pattern) {
+        return new Rule(questionId, answer, pattern, 0, true);
+    }
+
+    /**
+     * Строка таблицы правил: ключ (тема или questionId), ответ, фрагмент названия добавки и баллы
+     */
+    private static final class Rule {
+        private final String key;
+        private final String answer;
+        private final String pattern;
+        private final int delta;
+        private final boolean reset;
+
+        private Rule(String key, String answer, String pattern, int delta, boolean reset) {
+            this.key = key;
+            this.answer = answer;
+            this.pattern = pattern;
+            this.delta = delta;
+            this.reset = reset;
+        }
+    }
+
+    /**
+     * Таблица правил, скомпилированная против конкретного каталога. Неизменяема и потокобезопасна.
+     */
+    public static final class Compiled {
+        private final Supplement[] catalog;
+        private final Map<String, int[]> initialByTopic;
+        private final Map<String, int[]> answerActions;
+        private final Map<String, int[]> factorActions;
+        private final Map<String, Integer> patternMatchCounts;
+
+        private Compiled(Supplement[] catalog,
+                         Map<String, int[]> initialByTopic,
+                         Map<String, int[]> answerActions,
+                         Map<String, int[]> factorActions,
+                         Map<String, Integer> patternMatchCounts) {
+            this.catalog = catalog;
+            this.initialByTopic = initialByTopic;
+            this.answerActions = answerActions;
+            this.factorActions = factorActions;
+            this.patternMatchCounts = patternMatchCounts;
+        }
+
+        public int size() {
+            return catalog.length;
+        }
+
+        /**
+         * Количество добавок каталога, совпавших с каждым фрагментом названия (по алфавиту)
+         */
+        public Map<String, Integer> getPatternMatchCounts() {
+            return patternMatchCounts;
+        }
+
+        /**
+         * Фрагменты названий, которые не совпали ни с одной добавкой: их правила никогда не срабатывают
+         */
+        public List<String> getUnmatchedPatterns() {
+            List<String> unmatched = new ArrayList<>();
+            for (Map.Entry<String, Integer> entry : patternMatchCounts.entrySet()) {
+                if (entry.getValue() == 0) {
+                    unmatched.add(entry.getKey());
+                }
+            }
+            return unmatched;
+        }
+
+        public Supplement getSupplement(int ordinal) {
+            return catalog[ordinal];
+        }
+
+        /**
+         * Итоговые баллы каждой добавки: стартовые по теме + за ответы + за общие факторы
+         */
+        public int[] score(List<UserAnswer> answers, String selectedTopic) {
+            int[] answerScores = new int[catalog.length];
+            int[] factorScores = new int[catalog.length];
+
+            for (UserAnswer answer : answers) {
+                if (answer.getQuestionId() == null || answer.getAnswer() == null) {
+                    continue;
+                }
+                String key = actionKey(answer.getQuestionId(), answer.getAnswer());
+                apply(answerActions.getOrDefault(key, NO_ACTIONS), answerScores);
+                apply(factorActions.getOrDefault(key, NO_ACTIONS), factorScores);
+            }
+
+            int[] initial = selectedTopic != null ? initialByTopic.get(selectedTopic) : null;
+            int[] total = answerScores;
+            for (int i = 0; i < total.length; i++) {
+                total[i] += factorScores[i] + (initial != null ? initial[i] : 0);
+            }
+            return total;
+        }
+
+        private static void apply(int[] actions, int[] scores) {
+            for (int i = 0; i < actions.length; i += 2) {
+                if (actions[i + 1] == RESET) {
+                    scores[actions[i]] = 0;
+                } else {
+                    scores[actions[i]] += actions[i + 1];
+                }
+            }
+        }
+    }
+}
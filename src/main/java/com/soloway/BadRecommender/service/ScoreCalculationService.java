@@ -1,26 +1,31 @@
 package com.soloway.BadRecommender.service;
 
 import com.soloway.BadRecommender.model.Supplement;
-import com.soloway.BadRecommender.model.SupplementScore;
 import com.soloway.BadRecommender.model.UserAnswer;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 @Service
 public class ScoreCalculationService {
 
-    private final GoogleSheetsDataService googleSheetsDataService;
-    private final GoogleSheetsService googleSheetsService;
+    // Сколько лучших добавок попадает в рекомендации (3 основные + 2 дополнительные)
+    private static final int TOP_COUNT = 5;
+
+    // Размер порции пакетного расчета: ограничивает память под результаты, ожидающие записи
+    private static final int BATCH_CHUNK_SIZE = 512;
+
+    // Переиспользуемые буферы баллов: по одному на поток, без аллокаций на запрос
+    private static final ThreadLocal<ScoreBuffer> SCORE_BUFFERS = ThreadLocal.withInitial(ScoreBuffer::new);
+
+    private final ScoringModelService scoringModelService;
 
     @Autowired
-    public ScoreCalculationService(GoogleSheetsDataService googleSheetsDataService,
-                                  GoogleSheetsService googleSheetsService) {
-        this.googleSheetsDataService = googleSheetsDataService;
-        this.googleSheetsService = googleSheetsService;
+    public ScoreCalculationService(ScoringModelService scoringModelService) {
+        this.scoringModelService = scoringModelService;
     }
 
     /**
@@ -29,117 +34,170 @@ public class ScoreCalculationService {
     public RecommendationResult calculateScores(List<UserAnswer> userAnswers, String selectedCategory) throws IOException {
         System.out.println("🔍 Начинаем расчет баллов для категории: " + selectedCategory);
         
-        // Загружаем все добавки
-        List<Supplement> supplements = googleSheetsService.loadSupplements();
-        System.out.println("💊 Загружено добавок: " + supplements.size());
-        
-        // Загружаем правила начисления баллов
-        List<GoogleSheetsDataService.AnswerScore> answerScores = googleSheetsDataService.loadAnswerScores();
-        System.out.println("📊 Загружено правил начисления баллов: " + answerScores.size());
+        // Берем текущий снимок модели (без обращения к Google Sheets)
+        ScoringModel model = scoringModelService.getModel();
+        RecommendationResult result = calculateScores(model, userAnswers, selectedCategory, true);
         
-        // Загружаем базовые баллы для выбранной темы
-        System.out.println("🏆 Начинаем загрузку базовых баллов...");
-        List<GoogleSheetsDataService.BaseScore> baseScores = googleSheetsDataService.loadBaseScores();
-        System.out.println("🏆 Загружено базовых баллов: " + baseScores.size());
+        System.out.println("🏆 Основных рекомендаций: " + result.getMainRecommendations().size());
+        System.out.println("📋 Дополнительных рекомендаций: " + result.getAdditionalRecommendations().size());
+        return result;
+    }
+
+    /**
+     * Пакетный расчет: все наборы ответов считаются по одному снимку модели.
+     * Наборы обрабатываются порциями, внутри порции - параллельно на всех ядрах;
+     * результаты передаются в writer строго в исходном порядке, по мере готовности порций.
+     * Email при этом не отправляется.
+     */
+    public int calculateBatchScores(List<BatchItem> items, BatchResultWriter writer) throws IOException {
+        ScoringModel model = scoringModelService.getModel();
+        long start = System.currentTimeMillis();
+        System.out.println("📦 Пакетный расчет: наборов ответов " + items.size() + ", добавок в модели " + model.size());
         
-        // Выводим все загруженные базовые баллы для отладки
-        for (GoogleSheetsDataService.BaseScore bs : baseScores) {
-            System.out.println("🏆 Базовый балл: тема='" + bs.getTopic() + "', добавка='" + bs.getSupplementCode() + "', баллы=" + bs.getBaseScore());
+        RecommendationResult[] chunk = new RecommendationResult[Math.min(BATCH_CHUNK_SIZE, items.size())];
+        for (int from = 0; from < items.size(); from += BATCH_CHUNK_SIZE) {
+            int offset = from;
+            int to = Math.min(from + BATCH_CHUNK_SIZE, items.size());
+            IntStream.range(from, to).parallel().forEach(i -> {
+                BatchItem item = items.get(i);
+                List<UserAnswer> answers = item.getAnswers() != null ? item.getAnswers() : List.of();
+                chunk[i - offset] = calculateScores(model, answers, item.getSelectedTopic(), false);
+            });
+            for (int i = from; i < to; i++) {
+                writer.write(i, items.get(i), chunk[i - offset]);
+                chunk[i - offset] = null;
+            }
         }
         
-        // Инициализируем баллы для всех добавок с базовыми баллами
-        Map<String, SupplementScore> supplementScores = new HashMap<>();
-        for (Supplement supplement : supplements) {
-            // Ищем базовые баллы для этой добавки и темы
-            double baseScore = baseScores.stream()
-                .filter(bs -> bs.getSupplementCode().equals(supplement.getCode()) && 
-                             bs.getTopic().equalsIgnoreCase(selectedCategory))
-                .mapToDouble(GoogleSheetsDataService.BaseScore::getBaseScore)
-                .sum();
-            
-            SupplementScore supplementScore = new SupplementScore(supplement.getName(), (int) baseScore);
-            if (baseScore > 0) {
-                System.out.println("🏆 " + supplement.getName() + " получил базовые " + baseScore + " баллов за тему '" + selectedCategory + "'");
-            }
-            supplementScores.put(supplement.getCode(), supplementScore);
+        System.out.println("✅ Пакетный расчет завершен за " + (System.currentTimeMillis() - start) + " мс");
+        return items.size();
+    }
+
+    /**
+     * Расчет по заданному снимку модели. Буферы берутся из потока, поэтому метод безопасен
+     * для параллельного вызова.
+     */
+    private RecommendationResult calculateScores(ScoringModel model, List<UserAnswer> userAnswers,
+                                                 String selectedCategory, boolean verbose) {
+        ScoreBuffer buffer = SCORE_BUFFERS.get();
+        int[] scores = buffer.scores(model.size());
+        
+        // Инициализируем баллы всех добавок базовыми баллами темы (по индексу добавки)
+        int[] baseScores = model.getBaseScores(selectedCategory);
+        if (baseScores != null) {
+            System.arraycopy(baseScores, 0, scores, 0, model.size());
+        } else {
+            Arrays.fill(scores, 0, model.size(), 0);
         }
         
-        // Проходим по всем ответам пользователя
+        // Применяем баллы по индексу правил для каждого ответа пользователя
         for (UserAnswer userAnswer : userAnswers) {
-            System.out.println("🔍 Обрабатываем ответ на вопрос: " + userAnswer.getQuestionId() + " = " + userAnswer.getAnswer());
-            
-            // Ищем правила для этого вопроса и ответа
-            List<GoogleSheetsDataService.AnswerScore> relevantRules = answerScores.stream()
-                .filter(rule -> rule.getQuestionId().equals(userAnswer.getQuestionId()) &&
-                               rule.getAnswer().equalsIgnoreCase(userAnswer.getAnswer()))
-                .collect(Collectors.toList());
-            
-            // Применяем баллы
-            for (GoogleSheetsDataService.AnswerScore rule : relevantRules) {
-                String supplementCode = rule.getSupplementCode();
-                double score = rule.getScore();
-                
-                if (supplementScores.containsKey(supplementCode)) {
-                    SupplementScore supplementScore = supplementScores.get(supplementCode);
-                    supplementScore.addScore((int) score);
-                    System.out.println("📊 " + supplementScore.getSupplementName() + " получил " + score + " баллов за ответ '" + userAnswer.getAnswer() + "' на вопрос '" + userAnswer.getQuestionId() + "'");
-                }
+            if (userAnswer == null) {
+                continue;
+            }
+            int[] rules = model.getRules(userAnswer.getQuestionId(), userAnswer.getAnswer());
+            for (int r = 0; r < rules.length; r += 2) {
+                scores[rules[r]] += rules[r + 1];
             }
         }
         
-        // Сортируем добавки по баллам
-        List<SupplementScore> sortedScores = supplementScores.values().stream()
-            .filter(score -> score.getCurrentScore() > 0)
-            .sorted(Comparator.comparing(SupplementScore::getCurrentScore).reversed())
-            .collect(Collectors.toList());
+        // Выбираем лучшие добавки частичным отбором без полной сортировки
+        int[] top = buffer.top;
+        int found = selectTop(scores, model.size(), top);
         
-        System.out.println("✅ Расчет баллов завершен. Найдено добавок с баллами: " + sortedScores.size());
+        if (verbose) {
+            System.out.println("✅ Расчет баллов завершен. Ответов: " + userAnswers.size() + ", в рекомендации отобрано: " + found);
+        }
         
         // Формируем рекомендации
-        return generateRecommendations(sortedScores, supplements);
+        return generateRecommendations(model, top, found, scores, baseScores);
     }
 
     /**
-     * Генерирует основные и дополнительные рекомендации
+     * Отбирает до top.length добавок с наибольшими положительными баллами.
+     * При равных баллах выше стоит добавка, идущая раньше в каталоге.
+     * Возвращает количество отобранных индексов (по убыванию баллов).
      */
-    private RecommendationResult generateRecommendations(List<SupplementScore> sortedScores, List<Supplement> supplements) {
-        List<SupplementWithScore> mainRecommendations = new ArrayList<>();
-        List<SupplementWithScore> additionalRecommendations = new ArrayList<>();
-        
-        // Основные рекомендации (топ-3)
-        for (int i = 0; i < Math.min(3, sortedScores.size()); i++) {
-            SupplementScore supplementScore = sortedScores.get(i);
-            // Находим полную информацию о добавке по имени
-            Supplement supplement = supplements.stream()
-                .filter(s -> s.getName().equals(supplementScore.getSupplementName()))
-                .findFirst()
-                .orElse(null);
-            
-            if (supplement != null) {
-                mainRecommendations.add(new SupplementWithScore(supplement, supplementScore.getCurrentScore()));
+    static int selectTop(int[] scores, int size, int[] top) {
+        int found = 0;
+        for (int i = 0; i < size; i++) {
+            int score = scores[i];
+            if (score <= 0 || (found == top.length && score <= scores[top[found - 1]])) {
+                continue;
+            }
+            int pos = found < top.length ? found++ : found - 1;
+            while (pos > 0 && scores[top[pos - 1]] < score) {
+                top[pos] = top[pos - 1];
+                pos--;
             }
+            top[pos] = i;
         }
+        return found;
+    }
+
+    /**
+     * Генерирует основные и дополнительные рекомендации.
+     * Добавки берутся из каталога снимка по индексу, без поиска по имени.
+     */
+    private RecommendationResult generateRecommendations(ScoringModel model, int[] top, int found,
+                                                         int[] scores, int[] baseScores) {
+        List<SupplementWithScore> mainRecommendations = new ArrayList<>(3);
+        List<SupplementWithScore> additionalRecommendations = new ArrayList<>(2);
         
-        // Дополнительные рекомендации (следующие 2)
-        for (int i = 3; i < Math.min(5, sortedScores.size()); i++) {
-            SupplementScore supplementScore = sortedScores.get(i);
-            // Находим полную информацию о добавке по имени
-            Supplement supplement = supplements.stream()
-                .filter(s -> s.getName().equals(supplementScore.getSupplementName()))
-                .findFirst()
-                .orElse(null);
+        for (int i = 0; i < found; i++) {
+            int ordinal = top[i];
+            int baseScore = baseScores != null ? baseScores[ordinal] : 0;
+            SupplementWithScore recommendation = new SupplementWithScore(
+                model.getSupplement(ordinal), ordinal, scores[ordinal], baseScore, scores[ordinal] - baseScore);
             
-            if (supplement != null) {
-                additionalRecommendations.add(new SupplementWithScore(supplement, supplementScore.getCurrentScore()));
+            // Основные рекомендации (топ-3), дополнительные (следующие 2)
+            if (i < 3) {
+                mainRecommendations.add(recommendation);
+            } else {
+                additionalRecommendations.add(recommendation);
             }
         }
         
-        System.out.println("🏆 Основных рекомендаций: " + mainRecommendations.size());
-        System.out.println("📋 Дополнительных рекомендаций: " + additionalRecommendations.size());
-        
         return new RecommendationResult(mainRecommendations, additionalRecommendations);
     }
 
+    /**
+     * Буфер баллов потока: растет под размер каталога и переиспользуется между запросами
+     */
+    private static final class ScoreBuffer {
+        private int[] scores = new int[0];
+        private final int[] top = new int[TOP_COUNT];
+
+        int[] scores(int size) {
+            if (scores.length < size) {
+                scores = new int[size];
+            }
+            return scores;
+        }
+    }
+
+    /**
+     * Один набор ответов для пакетного расчета
+     */
+    public static class BatchItem {
+        private String selectedTopic;
+        private List<UserAnswer> answers;
+
+        public String getSelectedTopic() { return selectedTopic; }
+        public void setSelectedTopic(String selectedTopic) { this.selectedTopic = selectedTopic; }
+
+        public List<UserAnswer> getAnswers() { return answers; }
+        public void setAnswers(List<UserAnswer> answers) { this.answers = answers; }
+    }
+
+    /**
+     * Получатель результатов пакетного расчета (вызывается последовательно, в порядке наборов)
+     */
+    @FunctionalInterface
+    public interface BatchResultWriter {
+        void write(int index, BatchItem item, RecommendationResult result) throws IOException;
+    }
+
     /**
      * Результат расчета рекомендаций с полной информацией о добавках
      */
@@ -163,23 +221,44 @@ public class ScoreCalculationService {
     }
 
     /**
-     * Добавка с баллами
+     * Добавка с баллами и их разбивкой: базовые баллы темы + баллы за ответы
      */
     public static class SupplementWithScore {
         private final Supplement supplement;
+        private final int ordinal;
         private final int score;
+        private final int baseScore;
+        private final int answerScore;
 
-        public SupplementWithScore(Supplement supplement, int score) {
+        public SupplementWithScore(Supplement supplement, int ordinal, int score, int baseScore, int answerScore) {
             this.supplement = supplement;
+            this.ordinal = ordinal;
             this.score = score;
+            this.baseScore = baseScore;
+            this.answerScore = answerScore;
         }
 
         public Supplement getSupplement() {
             return supplement;
         }
 
+        /**
+         * Индекс добавки в каталоге снимка модели (-1, если добавка не из снимка)
+         */
+        public int getOrdinal() {
+            return ordinal;
+        }
+
         public int getScore() {
             return score;
         }
+
+        public int getBaseScore() {
+            return baseScore;
+        }
+
+        public int getAnswerScore() {
+            return answerScore;
+        }
     }
 }
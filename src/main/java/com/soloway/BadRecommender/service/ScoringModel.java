@@ -0,0 +1,163 @@
+package com.soloway.BadRecommender.service;
+
+import com.soloway.BadRecommender.model.Supplement;
+
+import java.util.*;
+
+/**
+ * Неизменяемый снимок модели расчета баллов: добавки, базовые баллы и правила AnswerScores.
+ * Строится один раз из Google Sheets и используется всеми запросами без обращения к сети.
+ *
+ * Добавки пронумерованы плотными индексами в порядке каталога. Правила хранятся
+ * в индексе по нормализованной паре (questionId, answer) в виде плоского массива
+ * пар (индекс добавки, баллы), базовые баллы темы - в виде вектора по индексам добавок.
+ */
+public final class ScoringModel {
+
+    private static final int[] NO_RULES = new int[0];
+
+    private final Supplement[] supplements;
+    private final Map<String, Integer> ordinalsByCode;
+    private final Map<String, int[]> baseScoresByTopic;
+    private final Map<String, int[]> rulesByAnswer;
+    private final int rulesCount;
+    private final long builtAt;
+
+    private ScoringModel(Supplement[] supplements,
+                         Map<String, Integer> ordinalsByCode,
+                         Map<String, int[]> baseScoresByTopic,
+                         Map<String, int[]> rulesByAnswer,
+                         int rulesCount) {
+        this.supplements = supplements;
+        this.ordinalsByCode = ordinalsByCode;
+        this.baseScoresByTopic = baseScoresByTopic;
+        this.rulesByAnswer = rulesByAnswer;
+        this.rulesCount = rulesCount;
+        this.builtAt = System.currentTimeMillis();
+    }
+
+    /**
+     * Собирает снимок из загруженных листов Supplements, AnswerScores и BaseScores
+     */
+    public static ScoringModel build(List<Supplement> supplements,
+                                     List<GoogleSheetsDataService.AnswerScore> answerScores,
+                                     List<GoogleSheetsDataService.BaseScore> baseScores) {
+        // Добавки по коду: при дублировании кода побеждает последняя строка листа
+        Map<String, Supplement> byCode = new LinkedHashMap<>();
+        for (Supplement supplement : supplements) {
+            if (supplement.getCode() != null) {
+                byCode.put(supplement.getCode(), supplement);
+            }
+        }
+
+        Supplement[] catalog = byCode.values().toArray(new Supplement[0]);
+        Map<String, Integer> ordinals = new HashMap<>();
+        for (int i = 0; i < catalog.length; i++) {
+            ordinals.put(catalog[i].getCode(), i);
+        }
+
+        // Базовые баллы: тема -> сумма баллов по каждой добавке
+        Map<String, double[]> baseSums = new HashMap<>();
+        for (GoogleSheetsDataService.BaseScore baseScore : baseScores) {
+            Integer ordinal = ordinals.get(baseScore.getSupplementCode());
+            if (ordinal == null || baseScore.getTopic() == null) {
+                continue;
+            }
+            double[] sums = baseSums.computeIfAbsent(normalize(baseScore.getTopic()), k -> new double[catalog.length]);
+            sums[ordinal] += baseScore.getBaseScore();
+        }
+        Map<String, int[]> baseVectors = new HashMap<>();
+        for (Map.Entry<String, double[]> entry : baseSums.entrySet()) {
+            double[] sums = entry.getValue();
+            int[] vector = new int[sums.length];
+            for (int i = 0; i < sums.length; i++) {
+                vector[i] = (int) sums[i];
+            }
+            baseVectors.put(entry.getKey(), vector);
+        }
+
+        // Правила: (questionId, answer) -> [индекс добавки, баллы, индекс добавки, баллы, ...]
+        Map<String, List<int[]>> grouped = new HashMap<>();
+        int count = 0;
+        for (GoogleSheetsDataService.AnswerScore rule : answerScores) {
+            Integer ordinal = ordinals.get(rule.getSupplementCode());
+            if (ordinal == null) {
+                continue;
+            }
+            grouped.computeIfAbsent(ruleKey(rule.getQuestionId(), rule.getAnswer()), k -> new ArrayList<>())
+                   .add(new int[] { ordinal, (int) rule.getScore() });
+            count++;
+        }
+        Map<String, int[]> rules = new HashMap<>();
+        for (Map.Entry<String, List<int[]>> entry : grouped.entrySet()) {
+            List<int[]> pairs = entry.getValue();
+            int[] flat = new int[pairs.size() * 2];
+            for (int i = 0; i < pairs.size(); i++) {
+                flat[i * 2] = pairs.get(i)[0];
+                flat[i * 2 + 1] = pairs.get(i)[1];
+            }
+            rules.put(entry.getKey(), flat);
+        }
+
+        return new ScoringModel(catalog, Map.copyOf(ordinals), Map.copyOf(baseVectors), Map.copyOf(rules), count);
+    }
+
+    /**
+     * Количество добавок в каталоге (индексы 0..size-1)
+     */
+    public int size() {
+        return supplements.length;
+    }
+
+    public Supplement getSupplement(int ordinal) {
+        return supplements[ordinal];
+    }
+
+    public List<Supplement> getSupplements() {
+        return Collections.unmodifiableList(Arrays.asList(supplements));
+    }
+
+    /**
+     * Индекс добавки по коду или -1
+     */
+    public int ordinalOf(String code) {
+        Integer ordinal = code != null ? ordinalsByCode.get(code) : null;
+        return ordinal != null ? ordinal : -1;
+    }
+
+    /**
+     * Вектор базовых баллов темы по индексам добавок (без учета регистра) или null
+     */
+    public int[] getBaseScores(String topic) {
+        if (topic == null) {
+            return null;
+        }
+        return baseScoresByTopic.get(normalize(topic));
+    }
+
+    /**
+     * Плоский массив пар (индекс добавки, баллы) для ответа на вопрос. Массив не изменять.
+     */
+    public int[] getRules(String questionId, String answer) {
+        if (questionId == null || answer == null) {
+            return NO_RULES;
+        }
+        return rulesByAnswer.getOrDefault(ruleKey(questionId, answer), NO_RULES);
+    }
+
+    public int getRulesCount() {
+        return rulesCount;
+    }
+
+    public long getBuiltAt() {
+        return builtAt;
+    }
+
+    private static String ruleKey(String questionId, String answer) {
+        return questionId + '\u0000' + normalize(answer);
+    }
+
+    private static String normalize(String value) {
+        return value.toLowerCase(Locale.ROOT);
+    }
+}
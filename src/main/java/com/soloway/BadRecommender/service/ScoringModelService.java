@@ -0,0 +1,88 @@
+package com.soloway.BadRecommender.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Держит текущий снимок модели расчета баллов и перестраивает его при каждом новом снимке данных.
+ * Запросы на расчет читают снимок без блокировок и без обращения к Google Sheets.
+ */
+@Service
+public class ScoringModelService {
+
+    private final GoogleSheetsDataService googleSheetsDataService;
+
+    private final AtomicReference<BuiltModel> currentModel = new AtomicReference<>();
+    private final Object buildLock = new Object();
+
+    @Autowired
+    public ScoringModelService(GoogleSheetsDataService googleSheetsDataService) {
+        this.googleSheetsDataService = googleSheetsDataService;
+    }
+
+    /**
+     * Возвращает модель, построенную из текущего снимка данных. Перестраивает ее только если снимок сменился.
+     */
+    public ScoringModel getModel() throws IOException {
+        GoogleSheetsDataService.DataSnapshot snapshot = googleSheetsDataService.getSnapshot();
+        BuiltModel built = currentModel.get();
+        if (built != null && built.source == snapshot) {
+            return built.model;
+        }
+        return rebuild(snapshot);
+    }
+
+    /**
+     * Перестраивает модель сразу после загрузки нового снимка данных
+     */
+    @EventListener
+    public void onSnapshotUpdated(GoogleSheetsDataService.DataSnapshot snapshot) {
+        try {
+            rebuild(snapshot);
+        } catch (Exception e) {
+            System.err.println("❌ Ошибка построения модели расчета баллов: " + e.getMessage());
+            if (currentModel.get() != null) {
+                System.err.println("⚠️ Продолжаем использовать предыдущий снимок модели");
+            }
+        }
+    }
+
+    private ScoringModel rebuild(GoogleSheetsDataService.DataSnapshot snapshot) {
+        synchronized (buildLock) {
+            BuiltModel built = currentModel.get();
+            if (built != null && built.source == snapshot) {
+                return built.model;
+            }
+            // Более старый снимок не должен затирать модель, построенную из более нового
+            if (built != null && built.source.getLoadedAt() > snapshot.getLoadedAt()) {
+                return built.model;
+            }
+
+            System.out.println("🔄 Строим снимок модели расчета баллов...");
+            ScoringModel model = ScoringModel.build(snapshot.getSupplements(),
+                                                    snapshot.getAnswerScores(),
+                                                    snapshot.getBaseScores());
+            currentModel.set(new BuiltModel(snapshot, model));
+            System.out.println("✅ Снимок модели готов: добавок " + model.size() +
+                    ", правил " + model.getRulesCount() + ", базовых баллов " + snapshot.getBaseScores().size());
+            return model;
+        }
+    }
+
+    /**
+     * Модель вместе со снимком данных, из которого она построена
+     */
+    private static final class BuiltModel {
+        private final GoogleSheetsDataService.DataSnapshot source;
+        private final ScoringModel model;
+
+        private BuiltModel(GoogleSheetsDataService.DataSnapshot source, ScoringModel model) {
+            this.source = source;
+            this.model = model;
+        }
+    }
+}
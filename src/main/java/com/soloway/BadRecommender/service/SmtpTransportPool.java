@@ -0,0 +1,172 @@
+package com.soloway.BadRecommender.service;
+
+import jakarta.annotation.PreDestroy;
+import jakarta.mail.MessagingException;
+import jakarta.mail.SendFailedException;
+import jakarta.mail.Transport;
+import jakarta.mail.internet.MimeMessage;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.LinkedBlockingDeque;
+
+/**
+ * Пул авторизованных SMTP-соединений поверх сессии JavaMailSenderImpl.
+ * Соединение переиспользуется для пачки писем и возвращается в пул, поэтому
+ * TLS-рукопожатие и авторизация не повторяются для каждого письма.
+ */
+@Component
+public class SmtpTransportPool {
+
+    private final JavaMailSenderImpl mailSender;
+    private final int maxIdle;
+    private final long keepAliveMs;
+
+    // Свободные соединения: последнее возвращенное берется первым
+    private final LinkedBlockingDeque<PooledTransport> idle = new LinkedBlockingDeque<>();
+
+    public SmtpTransportPool(JavaMailSenderImpl mailSender,
+                             @Value("${email.smtp.pool.max-idle:2}") int maxIdle,
+                             @Value("${email.smtp.pool.keep-alive:60000}") long keepAliveMs) {
+        this.mailSender = mailSender;
+        this.maxIdle = maxIdle;
+        this.keepAliveMs = keepAliveMs;
+    }
+
+    /**
+     * Отправляет пачку писем через одно соединение из пула.
+     * Соединение проверяется один раз при выдаче из пула (isConnected - это SMTP NOOP),
+     * переподключение - только после ошибки уровня соединения. Если сервер отклонил само письмо
+     * (например, 550 для получателя), соединение исправно и используется дальше.
+     * Возвращает ошибки по индексам писем; пустая карта - все письма отправлены.
+     */
+    public Map<Integer, Exception> sendBatch(List<MimeMessage> messages) {
+        Map<Integer, Exception> failures = new HashMap<>();
+        PooledTransport pooled = null;
+        try {
+            for (int i = 0; i < messages.size(); i++) {
+                MimeMessage message = messages.get(i);
+                try {
+                    message.saveChanges();
+                } catch (MessagingException | RuntimeException e) {
+                    // Ошибка самого письма, соединение в порядке
+                    failures.put(i, e);
+                    continue;
+                }
+                try {
+                    if (pooled == null) {
+                        pooled = borrow();
+                    }
+                    pooled.transport.sendMessage(message, message.getAllRecipients());
+                } catch (MessagingException | RuntimeException e) {
+                    failures.put(i, e);
+                    if (isConnectionFailure(e)) {
+                        // Соединение оборвалось или в неизвестном состоянии: следующее письмо отправим через новое
+                        close(pooled);
+                        pooled = null;
+                    }
+                }
+            }
+        } finally {
+            release(pooled);
+        }
+        return failures;
+    }
+
+    // SendFailedException - ответ сервера на конкретное письмо (отказ получателю, отклоненный DATA),
+    // SMTP-диалог при этом завершен корректно. Остальное, в том числе ошибки ввода-вывода
+    // внутри SendFailedException, считаем обрывом соединения.
+    private static boolean isConnectionFailure(Exception error) {
+        if (!(error instanceof SendFailedException)) {
+            return true;
+        }
+        for (Throwable cause = error.getCause(); cause != null; cause = cause.getCause()) {
+            if (cause instanceof IOException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private PooledTransport borrow() throws MessagingException {
+        PooledTransport pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            if (!isExpired(pooled) && pooled.transport.isConnected()) {
+                return pooled;
+            }
+            close(pooled);
+        }
+        return connect();
+    }
+
+    // Возвращает в пул соединение, на котором не было ошибок уровня соединения
+    private void release(PooledTransport pooled) {
+        if (pooled == null) {
+            return;
+        }
+        if (idle.size() < maxIdle) {
+            pooled.lastUsed = System.currentTimeMillis();
+            idle.offerFirst(pooled);
+        } else {
+            close(pooled);
+        }
+    }
+
+    private PooledTransport connect() throws MessagingException {
+        String protocol = mailSender.getProtocol();
+        Transport transport = protocol != null
+                ? mailSender.getSession().getTransport(protocol)
+                : mailSender.getSession().getTransport();
+        transport.connect(mailSender.getHost(), mailSender.getPort(), mailSender.getUsername(), mailSender.getPassword());
+        System.out.println("🔌 Открыто SMTP-соединение с " + mailSender.getHost());
+        return new PooledTransport(transport);
+    }
+
+    /**
+     * Закрывает соединения, простаивающие дольше keep-alive
+     */
+    @Scheduled(fixedDelayString = "${email.smtp.pool.keep-alive:60000}")
+    public void evictIdle() {
+        for (PooledTransport pooled : idle) {
+            if (isExpired(pooled) && idle.removeFirstOccurrence(pooled)) {
+                close(pooled);
+            }
+        }
+    }
+
+    private boolean isExpired(PooledTransport pooled) {
+        return System.currentTimeMillis() - pooled.lastUsed > keepAliveMs;
+    }
+
+    private void close(PooledTransport pooled) {
+        if (pooled == null) {
+            return;
+        }
+        try {
+            pooled.transport.close();
+        } catch (MessagingException e) {
+            System.err.println("⚠️ Ошибка закрытия SMTP-соединения: " + e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void closeAll() {
+        PooledTransport pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            close(pooled);
+        }
+    }
+
+    private static final class PooledTransport {
+        private final Transport transport;
+        private long lastUsed = System.currentTimeMillis();
+
+        private PooledTransport(Transport transport) {
+            this.transport = transport;
+        }
+    }
+}
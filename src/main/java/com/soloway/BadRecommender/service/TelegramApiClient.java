@@ -0,0 +1,337 @@
+package com.soloway.BadRecommender.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.soloway.BadRecommender.config.TelegramBotConfig;
+import com.soloway.BadRecommender.model.Supplement;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import io.netty.channel.ChannelOption;
+import io.netty.handler.timeout.ReadTimeoutHandler;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.stereotype.Service;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import org.telegram.telegrambots.meta.api.objects.replykeyboard.InlineKeyboardMarkup;
+import org.telegram.telegrambots.meta.api.objects.replykeyboard.buttons.InlineKeyboardButton;
+import reactor.netty.http.client.HttpClient;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Неблокирующий клиент Telegram Bot API.
+ * Запросы в чаты идут через TelegramOutboundScheduler: строго по порядку внутри чата, с учетом лимитов
+ * и повторами; поток вызывающего никогда не ждет ответа Telegram.
+ */
+@Service
+public class TelegramApiClient {
+
+    private static final Logger logger = LoggerFactory.getLogger(TelegramApiClient.class);
+
+    private static final String API_URL = "https://api.telegram.org/bot";
+    private static final int MAX_MEDIA_GROUP_SIZE = 10;
+
+    private final TelegramBotConfig botConfig;
+    private final TelegramOutboundScheduler outboundScheduler;
+    private final ObjectMapper objectMapper;
+    private final Long serviceChatId;
+    private final Duration requestTimeout;
+    private final WebClient webClient;
+
+    // file_id загруженных картинок по коду БАДа
+    private final Map<String, CachedFileId> fileIds = new ConcurrentHashMap<>();
+
+    public TelegramApiClient(TelegramBotConfig botConfig, TelegramOutboundScheduler outboundScheduler, ObjectMapper objectMapper,
+                             @Value("${telegram.bot.service-chat-id:}") String serviceChatId,
+                             @Value("${telegram.outbound.connect-timeout:5000}") int connectTimeoutMs,
+                             @Value("${telegram.outbound.request-timeout:30000}") long requestTimeoutMs) {
+        this.botConfig = botConfig;
+        this.outboundScheduler = outboundScheduler;
+        this.objectMapper = objectMapper;
+        this.serviceChatId = serviceChatId.isBlank() ? null : Long.valueOf(serviceChatId.trim());
+        // Без таймаутов зависший ответ навсегда занял бы слот чата в TelegramOutboundScheduler
+        this.requestTimeout = Duration.ofMillis(requestTimeoutMs);
+        HttpClient httpClient = HttpClient.create()
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, connectTimeoutMs)
+                .responseTimeout(requestTimeout)
+                .doOnConnected(connection -> connection.addHandlerLast(
+                        new ReadTimeoutHandler(requestTimeoutMs, TimeUnit.MILLISECONDS)));
+        this.webClient = WebClient.builder()
+                .clientConnector(new ReactorClientHttpConnector(httpClient))
+                .codecs(configurer -> configurer.defaultCodecs().maxInMemorySize(1024 * 1024)) // 1MB
+                .build();
+    }
+
+    /**
+     * Отправляет текстовое сообщение (Markdown)
+     */
+    public CompletableFuture<String> sendMessage(Long chatId, String text) {
+        return sendMessage(chatId, text, null);
+    }
+
+    /**
+     * Отправляет текстовое сообщение (Markdown) с inline клавиатурой
+     */
+    public CompletableFuture<String> sendMessage(Long chatId, String text, InlineKeyboardMarkup keyboard) {
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("chat_id", chatId);
+        body.put("text", text);
+        body.put("parse_mode", "Markdown");
+        if (keyboard != null) {
+            body.put("reply_markup", toReplyMarkup(keyboard));
+        }
+        return enqueue(chatId, "sendMessage", body);
+    }
+
+    /**
+     * Отправляет фото по URL с подписью (Markdown) и необязательной inline клавиатурой
+     */
+    public CompletableFuture<String> sendPhoto(Long chatId, String photo, String caption, InlineKeyboardMarkup keyboard) {
+        return sendPhoto(chatId, new InputPhoto(photo, caption), keyboard);
+    }
+
+    /**
+     * Отправляет фото; для фото с кодом БАДа вместо URL используется закэшированный file_id
+     */
+    public CompletableFuture<String> sendPhoto(Long chatId, InputPhoto photo, InlineKeyboardMarkup keyboard) {
+        List<InputPhoto> photos = List.of(photo);
+        return enqueuePhotos(chatId, "sendPhoto", photos, useCache -> {
+            Map<String, Object> body = new LinkedHashMap<>();
+            body.put("chat_id", chatId);
+            body.put("photo", photoReference(photo, useCache));
+            if (photo.caption != null) {
+                body.put("caption", photo.caption);
+                body.put("parse_mode", "Markdown");
+            }
+            if (keyboard != null) {
+                body.put("reply_markup", toReplyMarkup(keyboard));
+            }
+            return body;
+        });
+    }
+
+    /**
+     * Отправляет фото одним альбомом (sendMediaGroup). Telegram принимает от 2 до 10 фото,
+     * поэтому одно фото уходит обычным sendPhoto.
+     */
+    public CompletableFuture<String> sendMediaGroup(Long chatId, List<InputPhoto> photos) {
+        if (photos.size() == 1) {
+            return sendPhoto(chatId, photos.get(0), null);
+        }
+        return enqueuePhotos(chatId, "sendMediaGroup", photos, useCache -> {
+            List<Map<String, Object>> media = new ArrayList<>(photos.size());
+            for (InputPhoto photo : photos) {
+                Map<String, Object> item = new LinkedHashMap<>();
+                item.put("type", "photo");
+                item.put("media", photoReference(photo, useCache));
+                if (photo.caption != null) {
+                    item.put("caption", photo.caption);
+                    item.put("parse_mode", "Markdown");
+                }
+                media.add(item);
+            }
+            Map<String, Object> body = new LinkedHashMap<>();
+            body.put("chat_id", chatId);
+            body.put("media", media);
+            return body;
+        });
+    }
+
+    /**
+     * Отправка фото с file_id: если Telegram отклонил закэшированный file_id (400), в рамках того же
+     * запроса очереди сбрасываем кэш и повторяем по URL, чтобы не нарушить порядок сообщений чата.
+     * После успешной отправки запоминаем file_id из ответа.
+     */
+    private CompletableFuture<String> enqueuePhotos(Long chatId, String method, List<InputPhoto> photos,
+                                                    Function<Boolean, Map<String, Object>> body) {
+        return outboundScheduler.submit(chatId, method, () -> {
+            boolean usesCache = photos.stream().anyMatch(photo -> cachedFileId(photo) != null);
+            CompletableFuture<String> response = execute(chatId, method, body.apply(true));
+            if (usesCache) {
+                response = response.exceptionallyCompose(error -> {
+                    Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                    if (cause instanceof WebClientResponseException responseError && responseError.getStatusCode().value() == 400) {
+                        logger.warn("⚠️ Telegram отклонил file_id, отправляем фото по URL: {}", responseError.getResponseBodyAsString());
+                        for (InputPhoto photo : photos) {
+                            if (photo.cacheKey != null) {
+                                fileIds.remove(photo.cacheKey);
+                            }
+                        }
+                        return execute(chatId, method, body.apply(false));
+                    }
+                    return CompletableFuture.failedFuture(cause);
+                });
+            }
+            return response.thenApply(result -> {
+                rememberFileIds(photos, result);
+                return result;
+            });
+        });
+    }
+
+    private String photoReference(InputPhoto photo, boolean useCache) {
+        String fileId = useCache ? cachedFileId(photo) : null;
+        return fileId != null ? fileId : photo.photo;
+    }
+
+    private String cachedFileId(InputPhoto photo) {
+        if (photo.cacheKey == null) {
+            return null;
+        }
+        CachedFileId cached = fileIds.get(photo.cacheKey);
+        // Кэш действителен, только пока у БАДа тот же URL картинки
+        return cached != null && cached.imageUrl.equals(photo.photo) ? cached.fileId : null;
+    }
+
+    // sendPhoto возвращает сообщение, sendMediaGroup - массив сообщений в порядке фото
+    private void rememberFileIds(List<InputPhoto> photos, String response) {
+        try {
+            JsonNode result = objectMapper.readTree(response).path("result");
+            for (int i = 0; i < photos.size(); i++) {
+                InputPhoto photo = photos.get(i);
+                if (photo.cacheKey == null || cachedFileId(photo) != null) {
+                    continue;
+                }
+                JsonNode message = result.isArray() ? result.path(i) : result;
+                JsonNode sizes = message.path("photo");
+                if (sizes.isArray() && sizes.size() > 0) {
+                    // Последний размер - самый большой
+                    String fileId = sizes.path(sizes.size() - 1).path("file_id").asText(null);
+                    if (fileId != null) {
+                        fileIds.put(photo.cacheKey, new CachedFileId(photo.photo, fileId));
+                    }
+                }
+            }
+        } catch (Exception e) {
+            logger.warn("⚠️ Не удалось прочитать file_id из ответа Telegram: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * При обновлении каталога сбрасывает file_id БАДов, у которых сменилась или пропала картинка,
+     * и при заданном telegram.bot.service-chat-id заранее загружает новые картинки в служебный чат
+     */
+    @EventListener
+    public void onSnapshotUpdated(GoogleSheetsDataService.DataSnapshot snapshot) {
+        Map<String, String> imageUrls = new HashMap<>();
+        for (Supplement supplement : snapshot.getSupplements()) {
+            if (supplement.getCode() != null && supplement.getImageUrl() != null && !supplement.getImageUrl().isEmpty()) {
+                imageUrls.put(supplement.getCode(), supplement.getImageUrl());
+            }
+        }
+        fileIds.entrySet().removeIf(entry -> !entry.getValue().imageUrl.equals(imageUrls.get(entry.getKey())));
+
+        if (serviceChatId == null || !botConfig.isBotEnabled()) {
+            return;
+        }
+        List<InputPhoto> missing = new ArrayList<>();
+        for (Supplement supplement : snapshot.getSupplements()) {
+            if (supplement.isActive() && imageUrls.containsKey(supplement.getCode())) {
+                InputPhoto photo = new InputPhoto(supplement.getImageUrl(), null, supplement.getCode());
+                if (cachedFileId(photo) == null) {
+                    missing.add(photo);
+                }
+            }
+        }
+        if (missing.isEmpty()) {
+            return;
+        }
+        logger.info("Загружаем {} картинок БАДов в служебный чат {} для кэша file_id", missing.size(), serviceChatId);
+        for (int from = 0; from < missing.size(); from += MAX_MEDIA_GROUP_SIZE) {
+            sendMediaGroup(serviceChatId, missing.subList(from, Math.min(from + MAX_MEDIA_GROUP_SIZE, missing.size())));
+        }
+    }
+
+    /**
+     * Отвечает на callback query, чтобы убрать "часики" у кнопки. Идет в обход очереди чата.
+     */
+    public CompletableFuture<String> answerCallbackQuery(String callbackQueryId) {
+        return execute(null, "answerCallbackQuery", Map.of("callback_query_id", callbackQueryId));
+    }
+
+    private CompletableFuture<String> enqueue(Long chatId, String method, Map<String, Object> body) {
+        return outboundScheduler.submit(chatId, method, () -> execute(chatId, method, body));
+    }
+
+    private CompletableFuture<String> execute(Long chatId, String method, Object body) {
+        return webClient.post()
+                .uri(API_URL + botConfig.getBotToken() + "/" + method)
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(body)
+                .retrieve()
+                .bodyToMono(String.class)
+                .timeout(requestTimeout)
+                .doOnNext(response -> logger.info("✅ {} выполнен для чата {}: {}", method, chatId, response))
+                .doOnError(error -> logger.error("❌ Ошибка {} для чата {}: {}", method, chatId, error.getMessage()))
+                .toFuture();
+    }
+
+    private static Map<String, Object> toReplyMarkup(InlineKeyboardMarkup keyboard) {
+        List<List<Map<String, String>>> rows = new ArrayList<>();
+        for (List<InlineKeyboardButton> row : keyboard.getKeyboard()) {
+            List<Map<String, String>> buttons = new ArrayList<>(row.size());
+            for (InlineKeyboardButton button : row) {
+                Map<String, String> json = new LinkedHashMap<>();
+                json.put("text", button.getText());
+                // Тип кнопки: URL или callback_data
+                if (button.getUrl() != null && !button.getUrl().isEmpty()) {
+                    json.put("url", button.getUrl());
+                } else if (button.getCallbackData() != null && !button.getCallbackData().isEmpty()) {
+                    json.put("callback_data", button.getCallbackData());
+                }
+                buttons.add(json);
+            }
+            rows.add(buttons);
+        }
+        return Map.of("inline_keyboard", rows);
+    }
+
+    /**
+     * Фото для отправки: URL, подпись (Markdown, до 1024 символов) и код БАДа для кэша file_id
+     */
+    public static final class InputPhoto {
+        private final String photo;
+        private final String caption;
+        private final String cacheKey;
+
+        public InputPhoto(String photo, String caption) {
+            this(photo, caption, null);
+        }
+
+        public InputPhoto(String photo, String caption, String cacheKey) {
+            this.photo = photo;
+            this.caption = caption;
+            this.cacheKey = cacheKey;
+        }
+
+        public String getPhoto() {
+            return photo;
+        }
+
+        public String getCaption() {
+            return caption;
+        }
+    }
+
+    /**
+     * file_id картинки вместе с URL, по которому она была загружена
+     */
+    private static final class CachedFileId {
+        private final String imageUrl;
+        private final String fileId;
+
+        private CachedFileId(String imageUrl, String fileId) {
+            this.imageUrl = imageUrl;
+            this.fileId = fileId;
+        }
+    }
+}
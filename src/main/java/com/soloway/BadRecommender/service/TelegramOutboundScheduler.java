@@ -0,0 +1,318 @@
+package com.soloway.BadRecommender.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+import java.net.ConnectException;
+import java.net.UnknownHostException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Планировщик исходящих запросов Telegram с учетом лимитов Bot API.
+ * Общий token bucket ограничивает суммарную скорость бота, у каждого чата своя очередь и свой bucket.
+ * Чаты обслуживаются по кругу, в каждом чате одновременно выполняется не больше одного запроса,
+ * поэтому порядок сообщений сохраняется. Ответ 429 приостанавливает чат на retry_after.
+ * Все состояние принадлежит одному потоку-диспетчеру, блокировки не нужны.
+ */
+@Service
+public class TelegramOutboundScheduler {
+
+    private static final Logger logger = LoggerFactory.getLogger(TelegramOutboundScheduler.class);
+
+    private static final long RETRY_BACKOFF_MS = 1000;
+    private static final long SWEEP_INTERVAL_MS = 60_000;
+
+    private final ObjectMapper objectMapper;
+    private final int maxRetries;
+    private final double perChatRate;
+    private final double perChatBurst;
+
+    private final ScheduledExecutorService dispatcher;
+    private final TokenBucket globalBucket;
+
+    // Состояние чатов и круговая очередь чатов, готовых к отправке (только поток диспетчера)
+    private final Map<Long, ChatQueue> chats = new HashMap<>();
+    private final ArrayDeque<ChatQueue> ready = new ArrayDeque<>();
+    private boolean pumpScheduled;
+
+    private final AtomicInteger queued = new AtomicInteger();
+    private final Counter throttledCounter;
+
+    public TelegramOutboundScheduler(ObjectMapper objectMapper,
+                                     MeterRegistry meterRegistry,
+                                     @Value("${telegram.outbound.global-rate:30}") double globalRate,
+                                     @Value("${telegram.outbound.per-chat-rate:1}") double perChatRate,
+                                     @Value("${telegram.outbound.per-chat-burst:20}") double perChatBurst,
+                                     @Value("${telegram.outbound.max-retries:3}") int maxRetries) {
+        this.objectMapper = objectMapper;
+        this.maxRetries = maxRetries;
+        this.perChatRate = perChatRate;
+        this.perChatBurst = perChatBurst;
+        this.globalBucket = new TokenBucket(globalRate, globalRate);
+        this.dispatcher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "telegram-outbound");
+            thread.setDaemon(true);
+            return thread;
+        });
+        dispatcher.scheduleWithFixedDelay(this::sweepIdleChats, SWEEP_INTERVAL_MS, SWEEP_INTERVAL_MS, TimeUnit.MILLISECONDS);
+
+        Gauge.builder("telegram.outbound.queued", queued, AtomicInteger::get)
+                .description("Исходящие запросы Telegram в очередях чатов")
+                .register(meterRegistry);
+        this.throttledCounter = Counter.builder("telegram.outbound.throttled")
+                .description("Ответы 429 Too Many Requests от Telegram")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Ставит запрос в очередь чата. call выполняет HTTP-запрос и вызывается, когда позволяют лимиты.
+     */
+    public CompletableFuture<String> submit(Long chatId, String method, Supplier<CompletableFuture<String>> call) {
+        OutboundRequest request = new OutboundRequest(method, call);
+        queued.incrementAndGet();
+        try {
+            dispatcher.execute(() -> {
+                ChatQueue chat = chats.computeIfAbsent(chatId, id -> new ChatQueue(id, new TokenBucket(perChatRate, perChatBurst)));
+                chat.requests.add(request);
+                markReady(chat);
+                pump();
+            });
+        } catch (RejectedExecutionException e) {
+            queued.decrementAndGet();
+            request.result.completeExceptionally(e);
+        }
+        return request.result;
+    }
+
+    /**
+     * Отправляет столько запросов, сколько позволяет общий лимит, обходя готовые чаты по кругу
+     */
+    private void pump() {
+        long now = System.currentTimeMillis();
+        // Каждый шаг убирает чат из круга: он либо отправляет запрос, либо ждет таймер
+        while (!ready.isEmpty()) {
+            if (!globalBucket.tryAcquire(now)) {
+                schedulePump(globalBucket.millisUntilToken(now));
+                return;
+            }
+            ChatQueue chat = ready.poll();
+            chat.inReady = false;
+
+            long wait = Math.max(chat.notBefore - now, chat.bucket.millisUntilToken(now));
+            if (wait > 0) {
+                // Чат на паузе: токен возвращаем, чат вернется в круг по таймеру
+                globalBucket.release();
+                dispatcher.schedule(() -> {
+                    markReady(chat);
+                    pump();
+                }, wait, TimeUnit.MILLISECONDS);
+                continue;
+            }
+            chat.bucket.tryAcquire(now);
+            dispatch(chat, chat.requests.poll());
+        }
+    }
+
+    private void dispatch(ChatQueue chat, OutboundRequest request) {
+        chat.inFlight = true;
+        chat.lastSentAt = System.currentTimeMillis();
+        request.attempts++;
+
+        CompletableFuture<String> response;
+        try {
+            response = request.call.get();
+        } catch (Exception e) {
+            response = CompletableFuture.failedFuture(e);
+        }
+        response.whenComplete((body, error) -> {
+            try {
+                dispatcher.execute(() -> onComplete(chat, request, body, error));
+            } catch (RejectedExecutionException e) {
+                queued.decrementAndGet();
+                complete(request, body, error);
+            }
+        });
+    }
+
+    private void onComplete(ChatQueue chat, OutboundRequest request, String body, Throwable error) {
+        chat.inFlight = false;
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+
+        if (cause != null && request.attempts <= maxRetries && isRetryable(cause)) {
+            long delay = retryDelay(cause, request.attempts);
+            chat.notBefore = System.currentTimeMillis() + delay;
+            chat.requests.addFirst(request);
+            logger.warn("⚠️ {} для чата {} повторим через {} мс (попытка {}): {}",
+                    request.method, chat.chatId, delay, request.attempts, cause.getMessage());
+        } else {
+            queued.decrementAndGet();
+            complete(request, body, cause);
+        }
+
+        markReady(chat);
+        pump();
+    }
+
+    private void complete(OutboundRequest request, String body, Throwable error) {
+        if (error != null) {
+            request.result.completeExceptionally(error);
+        } else {
+            request.result.complete(body);
+        }
+    }
+
+    // Повторяем 429, 5xx и ошибки соединения, когда запрос заведомо не дошел до Telegram.
+    // Таймаут чтения и обрыв после отправки не повторяем: sendMessage и другие отправки не идемпотентны,
+    // и повтор продублировал бы сообщение в чате. Остальные 4xx повторять бессмысленно.
+    private static boolean isRetryable(Throwable error) {
+        if (error instanceof WebClientResponseException responseError) {
+            int status = responseError.getStatusCode().value();
+            return status == 429 || responseError.getStatusCode().is5xxServerError();
+        }
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            // ConnectException покрывает и отказ в соединении, и таймаут подключения Netty
+            if (cause instanceof ConnectException || cause instanceof UnknownHostException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Для 429 ждем retry_after из ответа Telegram, иначе экспоненциальная задержка
+    private long retryDelay(Throwable error, int attempt) {
+        if (error instanceof WebClientResponseException responseError && responseError.getStatusCode().value() == 429) {
+            throttledCounter.increment();
+            try {
+                int retryAfter = objectMapper.readTree(responseError.getResponseBodyAsString())
+                        .path("parameters").path("retry_after").asInt(1);
+                return retryAfter * 1000L;
+            } catch (Exception e) {
+                return RETRY_BACKOFF_MS;
+            }
+        }
+        return RETRY_BACKOFF_MS << (attempt - 1);
+    }
+
+    private void markReady(ChatQueue chat) {
+        if (!chat.inReady && !chat.inFlight && !chat.requests.isEmpty()) {
+            chat.inReady = true;
+            ready.add(chat);
+        }
+    }
+
+    private void schedulePump(long delayMs) {
+        if (pumpScheduled) {
+            return;
+        }
+        pumpScheduled = true;
+        dispatcher.schedule(() -> {
+            pumpScheduled = false;
+            pump();
+        }, Math.max(1, delayMs), TimeUnit.MILLISECONDS);
+    }
+
+    // Удаляет состояние чатов, которые давно ничего не отправляли и чей лимит полностью восстановился
+    private void sweepIdleChats() {
+        long now = System.currentTimeMillis();
+        long idleMs = (long) (perChatBurst / perChatRate * 1000);
+        chats.values().removeIf(chat -> !chat.inFlight && !chat.inReady && chat.requests.isEmpty()
+                && now - chat.lastSentAt > idleMs && now > chat.notBefore);
+    }
+
+    /**
+     * Количество запросов в очередях
+     */
+    public int getQueuedCount() {
+        return queued.get();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        dispatcher.shutdownNow();
+    }
+
+    /**
+     * Token bucket: rate токенов в секунду, не больше capacity накопленных
+     */
+    private static final class TokenBucket {
+        private final double ratePerMs;
+        private final double capacity;
+        private double tokens;
+        private long updatedAt = System.currentTimeMillis();
+
+        private TokenBucket(double ratePerSecond, double capacity) {
+            this.ratePerMs = ratePerSecond / 1000.0;
+            this.capacity = Math.max(1, capacity);
+            this.tokens = this.capacity;
+        }
+
+        private void refill(long now) {
+            if (now > updatedAt) {
+                tokens = Math.min(capacity, tokens + (now - updatedAt) * ratePerMs);
+                updatedAt = now;
+            }
+        }
+
+        private boolean tryAcquire(long now) {
+            refill(now);
+            if (tokens >= 1) {
+                tokens -= 1;
+                return true;
+            }
+            return false;
+        }
+
+        private void release() {
+            tokens = Math.min(capacity, tokens + 1);
+        }
+
+        private long millisUntilToken(long now) {
+            refill(now);
+            return tokens >= 1 ? 0 : (long) Math.ceil((1 - tokens) / ratePerMs);
+        }
+    }
+
+    /**
+     * Очередь запросов одного чата
+     */
+    private static final class ChatQueue {
+        private final Long chatId;
+        private final TokenBucket bucket;
+        private final ArrayDeque<OutboundRequest> requests = new ArrayDeque<>();
+        private boolean inFlight;
+        private boolean inReady;
+        private long notBefore;
+        private long lastSentAt;
+
+        private ChatQueue(Long chatId, TokenBucket bucket) {
+            this.chatId = chatId;
+            this.bucket = bucket;
+        }
+    }
+
+    /**
+     * Запрос в очереди вместе с результатом для вызывающего
+     */
+    private static final class OutboundRequest {
+        private final String method;
+        private final Supplier<CompletableFuture<String>> call;
+        private final CompletableFuture<String> result = new CompletableFuture<>();
+        private int attempts;
+
+        private OutboundRequest(String method, Supplier<CompletableFuture<String>> call) {
+            this.method = method;
+            this.call = call;
+        }
+    }
+}
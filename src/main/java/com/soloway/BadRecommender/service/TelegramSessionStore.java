@@ -0,0 +1,195 @@
+package com.soloway.BadRecommender.service;
+
+import com.soloway.BadRecommender.model.TelegramUser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Хранит сессии Telegram, вытесненные из памяти, на постоянном диске: файл на чат,
+ * разложенный по 256 подкаталогам, чтобы каталоги не разрастались.
+ */
+@Component
+public class TelegramSessionStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(TelegramSessionStore.class);
+
+    private static final String DIR_NAME = "sessions";
+    private static final int MAGIC = 0x42525453; // "BRTS"
+    private static final int FORMAT_VERSION = 2;
+
+    private final Path root;
+
+    public TelegramSessionStore(@Value("${data.dir:/app/data}") String dataDir) {
+        this.root = Paths.get(dataDir, DIR_NAME);
+    }
+
+    /**
+     * Читает сессию чата. Возвращает null, если ее нет или файл поврежден.
+     */
+    public TelegramUser load(Long chatId) {
+        Path file = fileFor(chatId);
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                logger.warn("⚠️ Неизвестный формат сессии чата {}", chatId);
+                return null;
+            }
+            return readUser(in);
+        } catch (Exception e) {
+            logger.error("❌ Ошибка чтения сессии чата {}: {}", chatId, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Атомарно записывает сессию чата (через временный файл). Ошибки записи только логируются,
+     * чтобы не попасть в getUser чужого чата или в очистку сессий.
+     */
+    public void save(TelegramUser user) {
+        Path file = fileFor(user.getChatId());
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            Files.createDirectories(file.getParent());
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                writeUser(out, user);
+            }
+            try {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.error("❌ Ошибка сохранения сессии чата {}: {}", user.getChatId(), e.getMessage());
+            try {
+                Files.deleteIfExists(tmp);
+            } catch (IOException ignored) {
+                // временный файл перезапишется при следующей записи
+            }
+        }
+    }
+
+    /**
+     * Удаляет сессию чата с диска
+     */
+    public void delete(Long chatId) {
+        try {
+            Files.deleteIfExists(fileFor(chatId));
+        } catch (IOException e) {
+            logger.error("❌ Ошибка удаления сессии чата {}: {}", chatId, e.getMessage());
+        }
+    }
+
+    /**
+     * Удаляет сессии, которые не менялись дольше maxAgeMs. Возвращает количество удаленных.
+     */
+    public int deleteOlderThan(long maxAgeMs) {
+        if (!Files.isDirectory(root)) {
+            return 0;
+        }
+        FileTime threshold = FileTime.fromMillis(System.currentTimeMillis() - maxAgeMs);
+        int deleted = 0;
+        try (Stream<Path> files = Files.walk(root, 2)) {
+            for (Path file : (Iterable<Path>) files.filter(Files::isRegularFile)::iterator) {
+                try {
+                    if (Files.getLastModifiedTime(file).compareTo(threshold) < 0) {
+                        Files.delete(file);
+                        deleted++;
+                    }
+                } catch (IOException e) {
+                    logger.warn("⚠️ Не удалось удалить устаревшую сессию {}: {}", file, e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            logger.error("❌ Ошибка очистки каталога сессий: {}", e.getMessage());
+        }
+        return deleted;
+    }
+
+    private Path fileFor(Long chatId) {
+        // Подкаталог по младшему байту chatId (чаты групп отрицательные)
+        String shard = String.format("%02x", chatId & 0xFF);
+        return root.resolve(shard).resolve(chatId + ".bin");
+    }
+
+    private static void writeUser(DataOutputStream out, TelegramUser user) throws IOException {
+        out.writeLong(user.getChatId());
+        writeString(out, user.getUsername());
+        writeString(out, user.getFirstName());
+        writeString(out, user.getLastName());
+        out.writeByte(user.getState() != null ? user.getState().ordinal() : TelegramUser.UserState.START.ordinal());
+        out.writeInt(user.getCurrentQuestionIndex());
+        writeString(out, user.getSelectedTopic());
+        out.writeInt(user.getQuestionsHash());
+        byte[] answerOptions = user.getAnswerOptions();
+        out.writeShort(answerOptions.length);
+        out.write(answerOptions);
+        Map<Integer, String> textAnswers = user.getTextAnswers();
+        out.writeShort(textAnswers.size());
+        for (Map.Entry<Integer, String> answer : textAnswers.entrySet()) {
+            out.writeShort(answer.getKey());
+            writeString(out, answer.getValue());
+        }
+        out.writeInt(user.getLastActivityEpochSecond());
+        writeString(out, user.getEmail());
+        out.writeBoolean(user.isSurveyCompleted());
+    }
+
+    private static TelegramUser readUser(DataInputStream in) throws IOException {
+        TelegramUser user = new TelegramUser(in.readLong());
+        user.setUsername(readString(in));
+        user.setFirstName(readString(in));
+        user.setLastName(readString(in));
+        user.setState(TelegramUser.UserState.values()[in.readByte()]);
+        user.setCurrentQuestionIndex(in.readInt());
+        user.setSelectedTopic(readString(in));
+        user.setQuestionsHash(in.readInt());
+        byte[] answerOptions = new byte[in.readUnsignedShort()];
+        in.readFully(answerOptions);
+        user.setAnswerOptions(answerOptions);
+        int textAnswersCount = in.readUnsignedShort();
+        Map<Integer, String> textAnswers = new HashMap<>(Math.max(4, textAnswersCount * 2));
+        for (int i = 0; i < textAnswersCount; i++) {
+            textAnswers.put(in.readUnsignedShort(), readString(in));
+        }
+        user.setTextAnswers(textAnswers);
+        user.setLastActivityEpochSecond(in.readInt());
+        user.setEmail(readString(in));
+        user.setSurveyCompleted(in.readBoolean());
+        return user;
+    }
+
+    // Строка: длина в байтах UTF-8 (-1 для null) и сами байты
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -8,14 +8,21 @@ import com.soloway.BadRecommender.service.ScoreCalculationService;
 import com.soloway.BadRecommender.service.GoogleSheetsDataService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Service;
 
 import java.util.*;
 import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Сервис для управления опросом в Telegram боте
- * Использует ту же логику, что и веб-интерфейс
+ * Использует ту же логику, что и веб-интерфейс. Темы и вопросы всех тем собираются заранее
+ * при каждом новом снимке данных, поэтому обработка обновлений не ждет загрузки.
  */
 @Service
 public class TelegramSurveyService {
@@ -26,15 +33,9 @@ public class TelegramSurveyService {
     private final RecommendationService recommendationService;
     private final GoogleSheetsDataService googleSheetsDataService;
 
-    // Кэш для тем (загружаем динамически)
-    private List<String> cachedTopics = null;
-    private long topicsCacheTime = 0;
-    
-    // Кэш для вопросов по темам
-    private Map<String, List<Question>> cachedQuestions = new HashMap<>();
-    private Map<String, Long> questionsCacheTime = new HashMap<>();
-    
-    private static final long CACHE_TTL = 300000; // 5 минут
+    // Темы и вопросы, собранные из одного снимка данных; заменяются целиком при смене снимка
+    private final AtomicReference<SurveyCache> currentCache = new AtomicReference<>();
+    private final Object buildLock = new Object();
 
     public TelegramSurveyService(QuestionRepository questionRepository, RecommendationService recommendationService, GoogleSheetsDataService googleSheetsDataService) {
         this.questionRepository = questionRepository;
@@ -58,30 +59,73 @@ public class TelegramSurveyService {
     }
 
     /**
-     * Загрузить темы из Google Sheets с кэшированием
+     * Прогрев после старта: если снимок данных уже поднят, сразу загружаем темы и вопросы всех тем
      */
-    private List<String> loadTopics() {
-        long currentTime = System.currentTimeMillis();
-        
-        // Проверяем кэш
-        if (cachedTopics != null && (currentTime - topicsCacheTime) < CACHE_TTL) {
-            return cachedTopics;
+    @EventListener(ApplicationReadyEvent.class)
+    public void prewarm() {
+        GoogleSheetsDataService.DataSnapshot snapshot = googleSheetsDataService.peekSnapshot();
+        if (snapshot != null) {
+            onSnapshotUpdated(snapshot);
         }
-        
+    }
+
+    /**
+     * Заранее собирает кэш по новому снимку данных; до готовности запросы обслуживает прежний кэш
+     */
+    @EventListener
+    public void onSnapshotUpdated(GoogleSheetsDataService.DataSnapshot snapshot) {
         try {
-            // Загружаем темы из Google Sheets
-            List<String> topics = googleSheetsDataService.loadCategories();
-            cachedTopics = topics;
-            topicsCacheTime = currentTime;
-            logger.info("Загружено {} тем из Google Sheets", topics.size());
-            return topics;
+            rebuild(snapshot);
+        } catch (Exception e) {
+            logger.error("Ошибка подготовки кэша тем и вопросов: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Текущий кэш. Блокирует только до первого прогрева, дальше запросы читают готовый кэш.
+     */
+    private SurveyCache cache() {
+        SurveyCache cache = currentCache.get();
+        if (cache != null) {
+            return cache;
+        }
+        try {
+            return rebuild(googleSheetsDataService.getSnapshot());
         } catch (IOException e) {
-            logger.error("Ошибка загрузки тем из Google Sheets: {}", e.getMessage());
-            // Возвращаем кэшированные темы или пустой список
-            return cachedTopics != null ? cachedTopics : new ArrayList<>();
+            logger.error("Ошибка получения снимка данных Google Sheets: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    private SurveyCache rebuild(GoogleSheetsDataService.DataSnapshot snapshot) {
+        synchronized (buildLock) {
+            SurveyCache current = currentCache.get();
+            if (current != null && current.source == snapshot) {
+                return current;
+            }
+            // Более старый снимок не должен затирать кэш, собранный из более нового
+            if (current != null && current.source.getLoadedAt() > snapshot.getLoadedAt()) {
+                return current;
+            }
+
+            SurveyCache cache = new SurveyCache(snapshot, Collections.unmodifiableList(new ArrayList<>(snapshot.getCategories())));
+            for (String topic : cache.topics) {
+                cache.loadQuestions(topic);
+            }
+            currentCache.set(cache);
+            logger.info("Кэш опроса готов: {} тем", cache.topics.size());
+            return cache;
         }
     }
 
+    /**
+     * Загрузить темы из кэша
+     */
+    private List<String> loadTopics() {
+        SurveyCache cache = cache();
+        return cache != null ? cache.topics : new ArrayList<>();
+    }
+
     /**
      * Вопрос о выборе темы
      */
@@ -97,32 +141,14 @@ public class TelegramSurveyService {
     }
 
     /**
-     * Загрузить вопросы для темы с кэшированием
+     * Загрузить вопросы для темы из кэша
      */
     private List<Question> loadQuestionsForTopic(String topic) {
-        long currentTime = System.currentTimeMillis();
-        
-        // Проверяем кэш
-        if (cachedQuestions.containsKey(topic)) {
-            Long cacheTime = questionsCacheTime.get(topic);
-            if (cacheTime != null && (currentTime - cacheTime) < CACHE_TTL) {
-                logger.debug("Вопросы для темы '{}' загружены из кэша", topic);
-                return cachedQuestions.get(topic);
-            }
-        }
-        
-        try {
-            // Загружаем вопросы из Google Sheets
-            List<Question> questions = recommendationService.getQuestionsByTopic(topic);
-            cachedQuestions.put(topic, questions);
-            questionsCacheTime.put(topic, currentTime);
-            logger.info("Загружено {} вопросов для темы '{}' из Google Sheets", questions.size(), topic);
-            return questions;
-        } catch (IOException e) {
-            logger.error("Ошибка загрузки вопросов для темы '{}': {}", topic, e.getMessage());
-            // Возвращаем кэшированные вопросы или пустой список
-            return cachedQuestions.getOrDefault(topic, new ArrayList<>());
+        SurveyCache cache = cache();
+        if (cache == null || topic == null) {
+            return new ArrayList<>();
         }
+        return cache.loadQuestions(topic);
     }
 
     /**
@@ -154,13 +180,26 @@ public class TelegramSurveyService {
         int currentIndex = user.getCurrentQuestionIndex();
         
         if (currentIndex == 0) {
-            // Выбор темы
+            // Выбор темы: принимаем только темы из таблицы, иначе вопрос о теме задается снова
             String selectedTopic = getTopicByAnswer(answer);
+            if (selectedTopic == null) {
+                logger.warn("Пользователь {} прислал неизвестную тему: {}", user.getUsername(), answer);
+                return;
+            }
             user.setSelectedTopic(selectedTopic);
+            user.setQuestionsHash(questionsHash(loadQuestionsForTopic(selectedTopic)));
             logger.info("Пользователь {} выбрал тему: {}", user.getUsername(), selectedTopic);
         } else {
-            // Сохраняем ответ на динамический вопрос
-            user.addAnswer(currentIndex - 1, answer);
+            // Сохраняем ответ на динамический вопрос номером варианта; ответ не из вариантов - текстом
+            List<Question> topicQuestions = loadQuestionsForTopic(user.getSelectedTopic());
+            int questionIndex = currentIndex - 1;
+            int optionIndex = questionIndex < topicQuestions.size() && topicQuestions.get(questionIndex).getOptions() != null
+                    ? topicQuestions.get(questionIndex).getOptions().indexOf(answer) : -1;
+            if (optionIndex >= 0 && optionIndex < 255) {
+                user.addAnswerOption(questionIndex, optionIndex);
+            } else {
+                user.addAnswer(questionIndex, answer);
+            }
             logger.info("Пользователь {} ответил на вопрос {}: {}", user.getUsername(), currentIndex, answer);
         }
         
@@ -168,12 +207,46 @@ public class TelegramSurveyService {
     }
 
     /**
-     * Получить тему по ответу пользователя
+     * Начинает опрос заново, если вопросы темы изменились после начала опроса (сессия могла
+     * пролежать на диске): сохраненные номера вариантов относятся к прежним вопросам.
+     * Возвращает true, если опрос сброшен.
+     */
+    public boolean restartIfQuestionsChanged(TelegramUser user) {
+        String selectedTopic = user.getSelectedTopic();
+        if (user.getCurrentQuestionIndex() == 0 || selectedTopic == null) {
+            return false;
+        }
+        if (questionsHash(loadQuestionsForTopic(selectedTopic)) == user.getQuestionsHash()) {
+            return false;
+        }
+        logger.info("Вопросы темы '{}' изменились, опрос пользователя {} начинается заново", selectedTopic, user.getUsername());
+        user.resetSurvey();
+        user.setState(TelegramUser.UserState.SURVEY_IN_PROGRESS);
+        user.setSelectedTopic(null);
+        return true;
+    }
+
+    // Хэш идентификаторов и вариантов вопросов в порядке опроса
+    private static int questionsHash(List<Question> questions) {
+        int hash = 1;
+        for (Question question : questions) {
+            hash = 31 * hash + Objects.hashCode(question.getId());
+            hash = 31 * hash + Objects.hashCode(question.getOptions());
+        }
+        return hash;
+    }
+
+    /**
+     * Получить тему по ответу пользователя: строку из кэша тем либо null, если такой темы нет
      */
     private String getTopicByAnswer(String answer) {
-        // Теперь тема - это просто название из Google Sheets
-        // Возвращаем название темы как есть
-        return answer;
+        // Возвращаем экземпляр из кэша, чтобы сессии не держали собственные копии названия
+        for (String topic : loadTopics()) {
+            if (topic.equals(answer)) {
+                return topic;
+            }
+        }
+        return null;
     }
 
     /**
@@ -208,13 +281,12 @@ public class TelegramSurveyService {
         
         try {
             // Преобразуем ответы пользователя в формат UserAnswer
-            Map<Integer, String> answers = user.getAnswers();
             List<Question> questions = loadQuestionsForTopic(selectedTopic);
             
             for (int i = 0; i < questions.size(); i++) {
-                String answer = answers.get(i);
+                Question question = questions.get(i);
+                String answer = user.getAnswer(i, question.getOptions());
                 if (answer != null) {
-                    Question question = questions.get(i);
                     UserAnswer userAnswer = new UserAnswer();
                     userAnswer.setQuestionId(question.getId());
                     userAnswer.setAnswer(answer);
@@ -233,6 +305,48 @@ public class TelegramSurveyService {
         }
     }
 
+    /**
+     * Темы и вопросы по темам из одного снимка данных. Вопросы темы загружаются один раз:
+     * параллельные запросы одной темы ждут общую загрузку, а не запускают свою.
+     */
+    private final class SurveyCache {
+        private final GoogleSheetsDataService.DataSnapshot source;
+        private final List<String> topics;
+        private final Map<String, CompletableFuture<List<Question>>> questions = new ConcurrentHashMap<>();
+
+        private SurveyCache(GoogleSheetsDataService.DataSnapshot source, List<String> topics) {
+            this.source = source;
+            this.topics = topics;
+        }
+
+        private List<Question> loadQuestions(String topic) {
+            CompletableFuture<List<Question>> loading = questions.get(topic);
+            if (loading == null) {
+                CompletableFuture<List<Question>> created = new CompletableFuture<>();
+                loading = questions.putIfAbsent(topic, created);
+                if (loading == null) {
+                    loading = created;
+                    try {
+                        List<Question> loaded = Collections.unmodifiableList(recommendationService.getQuestionsByTopic(topic));
+                        created.complete(loaded);
+                        logger.info("Загружено {} вопросов для темы '{}' из Google Sheets", loaded.size(), topic);
+                    } catch (Exception e) {
+                        // Неудачную загрузку не кэшируем: следующий запрос попробует снова
+                        questions.remove(topic, created);
+                        created.completeExceptionally(e);
+                    }
+                }
+            }
+            try {
+                return loading.join();
+            } catch (CompletionException e) {
+                Throwable cause = e.getCause() != null ? e.getCause() : e;
+                logger.error("Ошибка загрузки вопросов для темы '{}': {}", topic, cause.getMessage());
+                return new ArrayList<>();
+            }
+        }
+    }
+
     /**
      * Класс для представления вопроса опроса
      */
@@ -0,0 +1,149 @@
+package com.soloway.BadRecommender.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Обработка входящих обновлений Telegram вне потока webhook.
+ * У каждого чата свой почтовый ящик: обновления одного чата обрабатываются строго по очереди,
+ * разные чаты - параллельно на ограниченном пуле. При переполнении новые обновления отклоняются,
+ * и Telegram доставит их повторно.
+ */
+@Service
+public class TelegramUpdateDispatcher {
+
+    private static final Logger logger = LoggerFactory.getLogger(TelegramUpdateDispatcher.class);
+
+    // Сколько обновлений чата обработать подряд, прежде чем уступить поток другим чатам
+    private static final int DRAIN_BUDGET = 8;
+
+    private final int capacity;
+    private final ExecutorService workers;
+
+    // Очереди чатов, которые сейчас обрабатываются; ящик удаляется, когда опустел
+    private final Map<Long, ArrayDeque<Runnable>> mailboxes = new ConcurrentHashMap<>();
+    private final AtomicInteger pending = new AtomicInteger();
+
+    private final Counter rejectedCounter;
+
+    public TelegramUpdateDispatcher(MeterRegistry meterRegistry,
+                                    @Value("${telegram.updates.workers:8}") int workerCount,
+                                    @Value("${telegram.updates.capacity:1000}") int capacity) {
+        this.capacity = capacity;
+        this.workers = Executors.newFixedThreadPool(workerCount, namedThreads("telegram-update"));
+
+        Gauge.builder("telegram.updates.pending", pending, AtomicInteger::get)
+                .description("Обновления Telegram, ожидающие обработки")
+                .register(meterRegistry);
+        this.rejectedCounter = Counter.builder("telegram.updates.rejected")
+                .description("Обновления, отклоненные из-за переполнения очереди")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Ставит обработку обновления в очередь чата. Возвращает false, если очередь переполнена.
+     */
+    public boolean submit(Long chatId, Runnable task) {
+        if (pending.incrementAndGet() > capacity) {
+            pending.decrementAndGet();
+            rejectedCounter.increment();
+            logger.warn("⚠️ Очередь обновлений переполнена ({}), обновление чата {} отклонено", capacity, chatId);
+            return false;
+        }
+
+        boolean[] start = new boolean[1];
+        mailboxes.compute(chatId, (id, mailbox) -> {
+            if (mailbox == null) {
+                mailbox = new ArrayDeque<>();
+                start[0] = true;
+            }
+            mailbox.add(task);
+            return mailbox;
+        });
+        if (start[0]) {
+            schedule(chatId);
+        }
+        return true;
+    }
+
+    private void schedule(Long chatId) {
+        try {
+            workers.execute(() -> drain(chatId));
+        } catch (RejectedExecutionException e) {
+            ArrayDeque<Runnable> dropped = mailboxes.remove(chatId);
+            int count = dropped != null ? dropped.size() : 0;
+            pending.addAndGet(-count);
+            logger.warn("⚠️ Обработчик остановлен, пропущено обновлений чата {}: {}", chatId, count);
+        }
+    }
+
+    private void drain(Long chatId) {
+        for (int processed = 0; processed < DRAIN_BUDGET; processed++) {
+            Runnable task = poll(chatId);
+            if (task == null) {
+                return;
+            }
+            try {
+                task.run();
+            } catch (Throwable e) {
+                // Ловим и Error: иначе ящик чата останется без обработчика и чат замолчит до перезапуска
+                logger.error("Ошибка обработки обновления чата {}: {}", chatId, e.getMessage(), e);
+            } finally {
+                pending.decrementAndGet();
+            }
+        }
+        // Бюджет исчерпан: возвращаем чат в конец очереди пула
+        schedule(chatId);
+    }
+
+    // Следующее обновление чата; пустой ящик удаляется атомарно с проверкой
+    private Runnable poll(Long chatId) {
+        Runnable[] next = new Runnable[1];
+        mailboxes.computeIfPresent(chatId, (id, mailbox) -> {
+            next[0] = mailbox.poll();
+            return next[0] != null ? mailbox : null;
+        });
+        return next[0];
+    }
+
+    /**
+     * Количество обновлений в очереди
+     */
+    public int getPendingCount() {
+        return pending.get();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        workers.shutdown();
+        try {
+            if (!workers.awaitTermination(10, TimeUnit.SECONDS)) {
+                workers.shutdownNow();
+                logger.warn("⚠️ Не все обновления Telegram обработаны до остановки: {}", pending.get());
+            }
+        } catch (InterruptedException e) {
+            workers.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static ThreadFactory namedThreads(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -1,61 +1,303 @@
 package com.soloway.BadRecommender.service;
 
 import com.soloway.BadRecommender.model.TelegramUser;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
-import java.time.LocalDateTime;
-import java.util.Map;
+import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * Сервис для управления пользователями Telegram
+ * Сервис для управления пользователями Telegram.
+ * В памяти держится ограниченное число недавно активных сессий (LRU); вытесненные и простаивающие
+ * сессии сохраняются в TelegramSessionStore и прозрачно поднимаются при следующем обновлении из чата.
+ * Сессии, которые сейчас обрабатывает поток обновлений (между getUser и releaseUser), не вытесняются:
+ * обработчики меняют TelegramUser без блокировки, и снятая в это время копия потеряла бы их изменения.
+ * Число сессий, вытеснения и оценка занимаемой памяти публикуются в метриках (telegram.sessions.*).
  */
 @Service
 public class TelegramUserService {
 
-    private final Map<Long, TelegramUser> users = new ConcurrentHashMap<>();
+    private static final Logger logger = LoggerFactory.getLogger(TelegramUserService.class);
+
+    // Сколько активных сессий просматривать для оценки среднего размера сессии
+    private static final int FOOTPRINT_SAMPLE_SIZE = 100;
+
+    private final TelegramSessionStore sessionStore;
+    private final int maxInMemory;
+    private final long idleTimeoutMs;
+    private final long diskTtlMs;
+
+    // Сессии в порядке последнего обращения: первая - самая давняя (под блокировкой this)
+    private final LinkedHashMap<Long, TelegramUser> users = new LinkedHashMap<>(16, 0.75f, true);
+
+    // Сколько обработчиков сейчас держат сессию чата (под блокировкой this)
+    private final Map<Long, Integer> inUse = new HashMap<>();
+
+    // Сессии, которые уже вытеснены из памяти, но еще записываются на диск
+    private final Map<Long, TelegramUser> spilling = new ConcurrentHashMap<>();
+
+    // Размер users, обновляется при каждой вставке и удалении: метрики читают его без блокировки
+    private final AtomicInteger sessionsInMemory = new AtomicInteger();
+    private volatile long estimatedSessionBytes;
+
+    private final Counter idleEvictions;
+    private final Counter overflowEvictions;
+    private final Counter restoredSessions;
+
+    public TelegramUserService(TelegramSessionStore sessionStore,
+                               MeterRegistry meterRegistry,
+                               @Value("${telegram.sessions.max-in-memory:10000}") int maxInMemory,
+                               @Value("${telegram.sessions.idle-timeout:1800000}") long idleTimeoutMs,
+                               @Value("${telegram.sessions.disk-ttl:2592000000}") long diskTtlMs) {
+        this.sessionStore = sessionStore;
+        this.maxInMemory = maxInMemory;
+        this.idleTimeoutMs = idleTimeoutMs;
+        this.diskTtlMs = diskTtlMs;
+
+        Gauge.builder("telegram.sessions.active", sessionsInMemory, AtomicInteger::get)
+                .description("Сессии в памяти (активные за idle-timeout)")
+                .register(meterRegistry);
+        Gauge.builder("telegram.sessions.spilling", spilling, Map::size)
+                .description("Сессии, ожидающие записи на диск")
+                .register(meterRegistry);
+        Gauge.builder("telegram.sessions.heap_bytes", this, service -> (double) service.sessionsInMemory.get() * service.estimatedSessionBytes)
+                .description("Оценка памяти, занятой сессиями")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        this.idleEvictions = Counter.builder("telegram.sessions.evicted")
+                .tag("reason", "idle")
+                .description("Сессии, перенесенные на диск")
+                .register(meterRegistry);
+        this.overflowEvictions = Counter.builder("telegram.sessions.evicted")
+                .tag("reason", "overflow")
+                .description("Сессии, перенесенные на диск")
+                .register(meterRegistry);
+        this.restoredSessions = Counter.builder("telegram.sessions.restored")
+                .description("Сессии, восстановленные с диска")
+                .register(meterRegistry);
+    }
 
     /**
-     * Получить или создать пользователя
+     * Получить или создать пользователя (из памяти, с диска или новую сессию).
+     * Сессия остается занятой и не вытесняется на диск, пока вызывающий не вызовет releaseUser.
      */
     public TelegramUser getUser(Long chatId) {
-        return users.computeIfAbsent(chatId, TelegramUser::new);
+        TelegramUser user;
+        synchronized (this) {
+            user = users.get(chatId);
+            if (user != null) {
+                // Любое обновление из чата - активность; порядок LRU совпадает с порядком активности
+                user.touch();
+                inUse.merge(chatId, 1, Integer::sum);
+                return user;
+            }
+        }
+        user = spilling.get(chatId);
+        if (user == null) {
+            user = sessionStore.load(chatId);
+            if (user != null) {
+                restoredSessions.increment();
+                logger.info("Сессия чата {} восстановлена с диска", chatId);
+            }
+        }
+        if (user == null) {
+            user = new TelegramUser(chatId);
+        }
+        synchronized (this) {
+            TelegramUser existing = users.putIfAbsent(chatId, user);
+            if (existing != null) {
+                user = existing;
+            } else {
+                sessionsInMemory.incrementAndGet();
+            }
+            user.touch();
+            inUse.merge(chatId, 1, Integer::sum);
+        }
+        spill(evictOverflow());
+        return user;
+    }
+
+    /**
+     * Отпустить сессию, полученную через getUser: после этого ее снова можно вытеснить на диск
+     */
+    public synchronized void releaseUser(TelegramUser user) {
+        inUse.computeIfPresent(user.getChatId(), (chatId, count) -> count > 1 ? count - 1 : null);
     }
 
     /**
      * Обновить информацию о пользователе
      */
     public void updateUser(TelegramUser user) {
-        users.put(user.getChatId(), user);
+        synchronized (this) {
+            if (users.put(user.getChatId(), user) == null) {
+                sessionsInMemory.incrementAndGet();
+            }
+        }
+        spill(evictOverflow());
     }
 
     /**
      * Удалить пользователя
      */
     public void removeUser(Long chatId) {
-        users.remove(chatId);
+        synchronized (this) {
+            if (users.remove(chatId) != null) {
+                sessionsInMemory.decrementAndGet();
+            }
+        }
+        spilling.remove(chatId);
+        sessionStore.delete(chatId);
     }
 
     /**
-     * Очистить неактивных пользователей
+     * Переносит на диск сессии, простаивающие дольше idle-timeout.
+     * users упорядочен по последнему обращению, а каждое обращение отмечает активность, поэтому он же
+     * служит очередью истечения: проход снимает просроченные сессии с головы и останавливается на первой
+     * активной - O(просроченных), а не O(всех). Заодно по небольшой выборке оценивается размер сессии.
      */
+    @Scheduled(fixedDelayString = "${telegram.sessions.sweep-interval:60000}")
     public void cleanupInactiveUsers() {
-        users.entrySet().removeIf(entry -> !entry.getValue().isActive());
+        long threshold = (System.currentTimeMillis() - idleTimeoutMs) / 1000;
+        List<TelegramUser> idle = new ArrayList<>();
+        long sampledBytes = 0;
+        int sampled = 0;
+        synchronized (this) {
+            Iterator<TelegramUser> it = users.values().iterator();
+            while (it.hasNext()) {
+                TelegramUser user = it.next();
+                if (user.getLastActivityEpochSecond() > threshold) {
+                    sampledBytes += user.estimatedSizeBytes();
+                    sampled++;
+                    break;
+                }
+                if (inUse.containsKey(user.getChatId())) {
+                    continue;
+                }
+                it.remove();
+                spilling.put(user.getChatId(), user);
+                idle.add(user);
+            }
+            while (it.hasNext() && sampled < FOOTPRINT_SAMPLE_SIZE) {
+                sampledBytes += it.next().estimatedSizeBytes();
+                sampled++;
+            }
+            sessionsInMemory.addAndGet(-idle.size());
+        }
+        if (sampled > 0) {
+            estimatedSessionBytes = sampledBytes / sampled;
+        }
+        idleEvictions.increment(idle.size());
+        spill(idle);
+        if (!idle.isEmpty()) {
+            logger.info("На диск перенесено простаивающих сессий: {}", idle.size());
+        }
+    }
+
+    /**
+     * Удаляет с диска сессии, не обновлявшиеся дольше disk-ttl
+     */
+    @Scheduled(fixedDelayString = "${telegram.sessions.disk-cleanup-interval:3600000}")
+    public void cleanupStoredSessions() {
+        int deleted = sessionStore.deleteOlderThan(diskTtlMs);
+        if (deleted > 0) {
+            logger.info("Удалено устаревших сессий с диска: {}", deleted);
+        }
     }
 
     /**
-     * Получить количество активных пользователей
+     * Получить количество активных пользователей: сессии старше idle-timeout уходят из памяти,
+     * поэтому это число сессий в памяти (с точностью до интервала очистки)
      */
     public int getActiveUsersCount() {
-        return (int) users.values().stream()
-                .filter(TelegramUser::isActive)
-                .count();
+        return sessionsInMemory.get();
     }
 
     /**
-     * Получить всех пользователей
+     * Получить всех пользователей, сессии которых сейчас в памяти
      */
-    public Map<Long, TelegramUser> getAllUsers() {
+    public synchronized Map<Long, TelegramUser> getAllUsers() {
         return new ConcurrentHashMap<>(users);
     }
+
+    /**
+     * Сохраняет все сессии из памяти на диск при остановке, чтобы перезапуск не сбрасывал опросы
+     */
+    @PreDestroy
+    public void flush() {
+        List<TelegramUser> all;
+        synchronized (this) {
+            all = new ArrayList<>(users.values());
+        }
+        all.forEach(this::saveCopy);
+        logger.info("Сессии сохранены на диск перед остановкой: {}", all.size());
+    }
+
+    // Вытесняет самые давние свободные сессии сверх лимита; запись на диск - вне блокировки.
+    // Если заняты все, лимит временно превышается до их освобождения.
+    private synchronized List<TelegramUser> evictOverflow() {
+        if (users.size() <= maxInMemory) {
+            return List.of();
+        }
+        List<TelegramUser> evicted = new ArrayList<>();
+        Iterator<TelegramUser> it = users.values().iterator();
+        while (users.size() > maxInMemory && it.hasNext()) {
+            TelegramUser user = it.next();
+            if (inUse.containsKey(user.getChatId())) {
+                continue;
+            }
+            it.remove();
+            spilling.put(user.getChatId(), user);
+            evicted.add(user);
+        }
+        sessionsInMemory.addAndGet(-evicted.size());
+        overflowEvictions.increment(evicted.size());
+        return evicted;
+    }
+
+    private void spill(List<TelegramUser> sessions) {
+        for (TelegramUser user : sessions) {
+            spillCopy(user);
+            spilling.remove(user.getChatId(), user);
+        }
+    }
+
+    // Вытесняются только свободные сессии, поэтому копия согласована. Если сессию успели снова поднять
+    // в память, запись пропускается (containsKey не сдвигает порядок LRU): ее сохранит следующее
+    // вытеснение. Копия и запись идут под блокировкой сессии, чтобы более старая копия
+    // не перезаписала на диске более новую.
+    private void spillCopy(TelegramUser user) {
+        synchronized (user) {
+            TelegramUser copy;
+            synchronized (this) {
+                if (users.containsKey(user.getChatId())) {
+                    return;
+                }
+                copy = user.copy();
+            }
+            sessionStore.save(copy);
+        }
+    }
+
+    // При остановке сессию еще может обрабатывать поток обновлений: на диск пишем копию, снятую под блокировкой
+    private void saveCopy(TelegramUser user) {
+        TelegramUser copy;
+        try {
+            synchronized (this) {
+                copy = user.copy();
+            }
+        } catch (RuntimeException e) {
+            logger.error("❌ Не удалось снять копию сессии чата {}: {}", user.getChatId(), e.getMessage());
+            return;
+        }
+        sessionStore.save(copy);
+    }
 }
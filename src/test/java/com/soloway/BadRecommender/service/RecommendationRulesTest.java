@@ -0,0 +1,328 @@
+package com.soloway.BadRecommender.service;
+
+import com.soloway.BadRecommender.model.Supplement;
+import com.soloway.BadRecommender.model.UserAnswer;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Скомпилированная таблица RecommendationRules дает те же баллы, что и прежние switch
+ * (LegacyRecommendationScoring), включая правило-противопоказание, обнуляющее баллы за ответы.
+ */
+class RecommendationRulesTest {
+
+    private static final String[] TOPICS = {
+        "energy", "sleep", "weight", "skin", "digestion", "joints", "immunity",
+        "heart", "thyroid", "cycle", "menopause", "prostate", "iron", "unknown_topic"
+    };
+
+    // Все пары (questionId, answer), которые проверял прежний код
+    private static final String[][] ANSWERS = {
+        {"afternoon_sleep", "sometimes"},
+        {"afternoon_sleep", "almost_everyday"},
+        {"coffee_amount", "2-3"},
+        {"coffee_amount", "4+"},
+        {"sleep_time", "yes"},
+        {"anxiety_level", "7-8"},
+        {"anxiety_level", "9-10"},
+        {"weight_difficulty", "hunger"},
+        {"weight_difficulty", "sweet_craving"},
+        {"dry_skin", "yes"},
+        {"bloating", "yes"},
+        {"frequent_colds", "yes"},
+        {"ldl_level", "yes"},
+        {"tsh_level", "yes"},
+        {"cycle_length", "yes"},
+        {"hot_flashes", "yes"},
+        {"urine_stream", "yes"},
+        {"ferritin_level", "yes"},
+        {"iron_tolerance", "yes"},
+        {"iron_deficiency_doctor", "да"},
+        {"iron_deficiency_doctor", "не знаю"},
+        {"weakness_fatigue", "немного"},
+        {"weakness_fatigue", "сильно"},
+        {"dizziness_shortness", "иногда"},
+        {"dizziness_shortness", "часто"},
+        {"blood_loss", "было"},
+        {"blood_loss", "да, регулярно"},
+        {"vegetarian_vegan", "да"},
+        {"gut_sensitivity", "немного"},
+        {"gut_sensitivity", "выраженно"},
+        {"morning_energy", "иногда"},
+        {"morning_energy", "почти всегда"},
+        {"afternoon_crash", "иногда"},
+        {"afternoon_crash", "почти всегда"},
+        {"post_infection_fatigue", "было, но прошло"},
+        {"post_infection_fatigue", "да, держится"},
+        {"exercise_fatigue", "иногда"},
+        {"exercise_fatigue", "почти всегда"},
+        {"iron_anemia_doctor", "не знаю"},
+        {"iron_anemia_doctor", "да"},
+        {"caffeine_sensitivity", "иногда"},
+        {"caffeine_sensitivity", "часто"},
+        {"sleep_onset", "иногда"},
+        {"sleep_onset", "почти всегда"},
+        {"night_awakenings", "иногда"},
+        {"night_awakenings", "почти всегда"},
+        {"chronic_stress", "иногда"},
+        {"chronic_stress", "почти всегда"},
+        {"low_motivation", "иногда"},
+        {"low_motivation", "часто"},
+        {"screen_before_bed", "иногда"},
+        {"screen_before_bed", "почти всегда"},
+        {"stress_impact", "скорее да"},
+        {"stress_impact", "да"},
+        {"portion_control", "иногда"},
+        {"portion_control", "почти всегда"},
+        {"night_snacking", "иногда"},
+        {"night_snacking", "почти всегда"},
+        {"late_dinner", "иногда"},
+        {"late_dinner", "часто"},
+        {"skip_breakfast", "иногда"},
+        {"skip_breakfast", "часто"},
+        {"waist_increase", "немного"},
+        {"waist_increase", "выраженно"},
+        {"deep_acne", "иногда"},
+        {"deep_acne", "часто"},
+        {"acne_marks", "иногда"},
+        {"acne_marks", "часто"},
+        {"wrinkles_elasticity", "немного"},
+        {"wrinkles_elasticity", "выраженно"},
+        {"hair_loss", "немного"},
+        {"hair_loss", "заметно"},
+        {"scalp_issues", "иногда"},
+        {"scalp_issues", "часто"},
+        {"skin_irritation", "иногда"},
+        {"skin_irritation", "часто"},
+        {"recent_antibiotics", "да"},
+        {"recent_antibiotics", "не помню"},
+        {"dairy_intolerance", "иногда"},
+        {"dairy_intolerance", "часто"},
+        {"post_meal_discomfort", "иногда"},
+        {"post_meal_discomfort", "часто"},
+        {"ibs_diagnosis", "да"},
+        {"ibs_diagnosis", "не знаю"},
+        {"stress_gut_symptoms", "иногда"},
+        {"stress_gut_symptoms", "часто"},
+        {"bloating_sweet_cravings", "иногда"},
+        {"bloating_sweet_cravings", "часто"},
+        {"regular_exercise", "1-2 раза в неделю"},
+        {"regular_exercise", "3 и более раз в неделю"},
+        {"recent_injuries", "да"},
+        {"recent_injuries", "повторные"},
+        {"joint_dryness", "немного"},
+        {"joint_dryness", "выраженно"},
+        {"age_category", "35–49 лет"},
+        {"age_category", "50+ лет"},
+        {"knee_pain", "иногда"},
+        {"knee_pain", "часто"},
+        {"bone_density_risk", "да"},
+        {"bone_density_risk", "не знаю"},
+        {"social_contact", "иногда"},
+        {"social_contact", "часто"},
+        {"prolonged_colds", "иногда"},
+        {"prolonged_colds", "часто"},
+        {"frequent_infections", "иногда"},
+        {"frequent_infections", "часто"},
+        {"cold_extremities", "иногда"},
+        {"cold_extremities", "часто"},
+        {"autoimmune_thyroid", "да"},
+        {"autoimmune_thyroid", "не знаю"},
+        {"sleep_deprivation", "1-2 раза в неделю"},
+        {"sleep_deprivation", "3-4 раза в неделю или чаще"},
+        {"family_cardiovascular", "да"},
+        {"family_cardiovascular", "не знаю"},
+        {"exercise_fatigue_heart", "иногда"},
+        {"exercise_fatigue_heart", "часто"},
+        {"homocysteine_elevated", "да"},
+        {"homocysteine_elevated", "не знаю"},
+        {"inflammation_joints", "да"},
+        {"inflammation_joints", "не знаю"},
+        {"sedentary_lifestyle", "иногда"},
+        {"sedentary_lifestyle", "да"},
+        {"circulation_issues", "иногда"},
+        {"circulation_issues", "часто"},
+        {"cold_sensitivity", "иногда"},
+        {"cold_sensitivity", "часто"},
+        {"tsh_elevated", "не знаю"},
+        {"tsh_elevated", "да"},
+        {"autoimmune_thyroid_specific", "да"},
+        {"autoimmune_thyroid_specific", "не знаю"},
+        {"constipation", "да"},
+        {"voice_neck_discomfort", "иногда"},
+        {"voice_neck_discomfort", "часто"},
+        {"evening_energy_drop", "иногда"},
+        {"evening_energy_drop", "часто"},
+        {"irregular_cycle", "иногда"},
+        {"irregular_cycle", "часто"},
+        {"pms_symptoms", "умеренно"},
+        {"pms_symptoms", "сильно"},
+        {"premenstrual_acne", "иногда"},
+        {"premenstrual_acne", "часто"},
+        {"menstrual_pain", "иногда"},
+        {"menstrual_pain", "часто"},
+        {"heavy_periods", "иногда"},
+        {"heavy_periods", "часто"},
+        {"pregnancy_planning", "да"},
+        {"hot_flashes_frequent", "да"},
+        {"night_hot_flashes", "иногда"},
+        {"night_hot_flashes", "часто"},
+        {"mood_changes_menopause", "немного"},
+        {"mood_changes_menopause", "сильно"},
+        {"joint_pain_menopause", "немного"},
+        {"joint_pain_menopause", "выраженно"},
+        {"weight_gain_menopause", "немного"},
+        {"weight_gain_menopause", "заметно"},
+        {"family_hormone_cancer", "да"},
+        {"family_hormone_cancer", "не знаю"},
+        {"urinary_symptoms", "иногда"},
+        {"urinary_symptoms", "часто"},
+        {"energy_libido_decline", "немного"},
+        {"energy_libido_decline", "сильно"},
+        {"prostate_discomfort", "иногда"},
+        {"prostate_discomfort", "часто"},
+        {"male_hair_loss", "немного"},
+        {"male_hair_loss", "выраженно"},
+        {"recovery_time", "иногда"},
+        {"recovery_time", "часто"},
+        {"red_meat_consumption", "1-4 раза в неделю"},
+        {"red_meat_consumption", "каждый день"},
+        {"fish_consumption", "почти никогда"},
+        {"fish_consumption", "реже 1 раза в неделю"},
+        {"coffee_daily", "2–3"},
+        {"coffee_daily", "4+"},
+        {"physical_activity", "3–4"},
+        {"physical_activity", "5+"},
+        {"smoking_vaping", "иногда"},
+        {"smoking_vaping", "регулярно"},
+        {"sweet_cravings", "иногда"},
+        {"sweet_cravings", "часто"},
+        {"digestive_issues", "иногда"},
+        {"digestive_issues", "часто"},
+        {"cold_frequency", "2–3"},
+        {"cold_frequency", "4+"},
+        {"coffee", "2-3"},
+        {"coffee", "4+"},
+        {"training", "4+"},
+        {"smoking", "5-9"},
+        {"smoking", "10+"},
+        // Ответы, на которые правил нет
+        {"anxiety_level", "1-3"},
+        {"unknown_question", "yes"},
+    };
+
+    // Фрагменты названий из правил, по одному на добавку, плюс названия, совпадающие с несколькими фрагментами
+    private static final String[] NAMES = {
+        "Energy", "Coenzyme Q10", "Iron bisglycinate", "Tyrosine", "Magnesium B6", "5-HTP", "SAMe",
+        "Appetite Control", "Active Slim", "Comfort Slim", "Alpha-lipoic acid", "Collagen", "Glutathione",
+        "Hyaluronic acid", "Hair Complex", "Biotin", "Prebio Complex", "Synbiotic", "Curcumin", "Glucosamine",
+        "Vitamin D3", "Zinc", "Selenium", "Lactoferrin", "Vitamin C", "Gingko Biloba", "Ginkgo Biloba",
+        "Omega-3", "Resveratrol", "B-TMG", "Inositol", "DIM", "Lignagallat", "nO-Prost Complex",
+        "Men's Formula", "Iron Chelate", "Complex B-SAMe",
+        "Coenzyme Q10 (CoQ10) Energy", "Iron bisglycinate + Lactoferrin", "Vitamin C + Zinc + Selenium",
+        "Omega-3 DIM", "Melatonin"
+    };
+
+    private final List<Supplement> catalog = createCatalog();
+    private final RecommendationRules.Compiled rules = RecommendationRules.compile(catalog);
+
+    @Test
+    void singleAnswerScoresMatchLegacy() {
+        for (String topic : TOPICS) {
+            assertScoresMatch(List.of(), topic);
+            for (String[] answer : ANSWERS) {
+                assertScoresMatch(List.of(answer(answer[0], answer[1])), topic);
+            }
+        }
+    }
+
+    @Test
+    void randomAnswerSetsMatchLegacy() {
+        Random random = new Random(42);
+        for (int run = 0; run < 5000; run++) {
+            int count = 1 + random.nextInt(12);
+            List<UserAnswer> answers = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                String[] answer = ANSWERS[random.nextInt(ANSWERS.length)];
+                answers.add(answer(answer[0], answer[1]));
+            }
+            assertScoresMatch(answers, TOPICS[random.nextInt(TOPICS.length)]);
+        }
+    }
+
+    @Test
+    void resetZeroesAnswerScoresAccumulatedBeforeIt() {
+        int iron = indexOf("Iron bisglycinate");
+        int ironWithLactoferrin = indexOf("Iron bisglycinate + Lactoferrin");
+        UserAnswer ferritin = answer("ferritin_level", "yes");
+        UserAnswer tolerance = answer("iron_tolerance", "yes");
+
+        // Стартовые баллы темы "iron": 3 за тег + 3 за Iron bisglycinate
+        int[] resetLast = assertScoresMatch(List.of(ferritin, tolerance), "iron");
+        assertEquals(6, resetLast[iron]);
+        int[] resetFirst = assertScoresMatch(List.of(tolerance, ferritin), "iron");
+        assertEquals(9, resetFirst[iron]);
+
+        // Lactoferrin +3 и обнуление в одном ответе: обнуление идет вторым, остаются только стартовые баллы
+        int[] combined = assertScoresMatch(List.of(ferritin, tolerance), "iron");
+        assertEquals(3 + 3 + 3, combined[ironWithLactoferrin]);
+        int[] withoutTopic = assertScoresMatch(List.of(ferritin, tolerance), "sleep");
+        assertEquals(0, withoutTopic[ironWithLactoferrin]);
+    }
+
+    private int[] assertScoresMatch(List<UserAnswer> answers, String topic) {
+        int[] expected = new int[catalog.size()];
+        for (int i = 0; i < catalog.size(); i++) {
+            expected[i] = (int) LegacyRecommendationScoring.calculateSupplementScore(catalog.get(i), answers, topic);
+        }
+        int[] actual = rules.score(answers, topic);
+        assertArrayEquals(expected, actual, "тема " + topic + ", ответы " + describe(answers));
+        return actual;
+    }
+
+    private int indexOf(String name) {
+        for (int i = 0; i < catalog.size(); i++) {
+            if (catalog.get(i).getName().equals(name)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException(name);
+    }
+
+    // Теги раздаются детерминированно: у части добавок нет тегов, у части - несколько тем
+    private static List<Supplement> createCatalog() {
+        Random random = new Random(7);
+        List<Supplement> supplements = new ArrayList<>();
+        for (int i = 0; i < NAMES.length; i++) {
+            Set<String> tags = new HashSet<>();
+            int tagCount = random.nextInt(4);
+            for (int t = 0; t < tagCount; t++) {
+                tags.add(TOPICS[random.nextInt(TOPICS.length - 1)]);
+            }
+            if (NAMES[i].startsWith("Iron bisglycinate")) {
+                tags.add("iron");
+                tags.remove("sleep");
+            }
+            supplements.add(new Supplement((long) i + 1, NAMES[i], "Категория", tags, true));
+        }
+        return supplements;
+    }
+
+    private static UserAnswer answer(String questionId, String value) {
+        UserAnswer answer = new UserAnswer();
+        answer.setQuestionId(questionId);
+        answer.setAnswer(value);
+        return answer;
+    }
+
+    private static String describe(List<UserAnswer> answers) {
+        StringBuilder text = new StringBuilder();
+        for (UserAnswer answer : answers) {
+            text.append(answer.getQuestionId()).append('=').append(answer.getAnswer()).append("; ");
+        }
+        return text.toString();
+    }
+}
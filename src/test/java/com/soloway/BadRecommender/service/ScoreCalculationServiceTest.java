@@ -0,0 +1,211 @@
+package com.soloway.BadRecommender.service;
+
+import com.soloway.BadRecommender.model.Supplement;
+import com.soloway.BadRecommender.model.UserAnswer;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Частичный отбор лучших добавок (selectTop) и расчет баллов по снимку ScoringModel
+ */
+class ScoreCalculationServiceTest {
+
+    private static final String[] QUESTIONS = { "q1", "q2", "q3", "q4" };
+    private static final String[] ANSWERS = { "да", "нет", "Иногда" };
+    private static final String[] TOPICS = { "energy", "sleep", "skin" };
+
+    @Test
+    void selectTopReturnsAllPositiveWhenFewerThanTop() {
+        int[] scores = { 0, 4, -2, 7, 0 };
+        int[] top = new int[5];
+
+        int found = ScoreCalculationService.selectTop(scores, scores.length, top);
+
+        assertEquals(2, found);
+        assertEquals(3, top[0]);
+        assertEquals(1, top[1]);
+    }
+
+    @Test
+    void selectTopReturnsNothingWithoutPositiveScores() {
+        int[] scores = { 0, -1, 0 };
+        assertEquals(0, ScoreCalculationService.selectTop(scores, scores.length, new int[5]));
+        assertEquals(0, ScoreCalculationService.selectTop(new int[0], 0, new int[5]));
+    }
+
+    @Test
+    void selectTopKeepsCatalogOrderOnTies() {
+        int[] scores = { 3, 5, 3, 5, 3, 5, 3, 1 };
+        int[] top = new int[5];
+
+        int found = ScoreCalculationService.selectTop(scores, scores.length, top);
+
+        // Равные баллы: выше стоит добавка, идущая раньше; поздние равные не вытесняют ранние
+        assertEquals(5, found);
+        assertArrayEquals(new int[] { 1, 3, 5, 0, 2 }, top);
+    }
+
+    @Test
+    void selectTopIgnoresScoresBeyondSize() {
+        // Буфер баллов потока может быть длиннее текущего каталога
+        int[] scores = { 1, 2, 9, 9 };
+        int[] top = new int[5];
+
+        int found = ScoreCalculationService.selectTop(scores, 2, top);
+
+        assertEquals(2, found);
+        assertEquals(1, top[0]);
+        assertEquals(0, top[1]);
+    }
+
+    @Test
+    void selectTopMatchesFullSort() {
+        Random random = new Random(42);
+        for (int run = 0; run < 2000; run++) {
+            int size = random.nextInt(40);
+            int[] scores = new int[size];
+            for (int i = 0; i < size; i++) {
+                // Узкий диапазон, чтобы было много равных баллов
+                scores[i] = random.nextInt(9) - 3;
+            }
+            int[] top = new int[5];
+
+            int found = ScoreCalculationService.selectTop(scores, size, top);
+
+            assertArrayEquals(fullSortTop(scores, size), Arrays.copyOf(top, found), "баллы " + Arrays.toString(scores));
+        }
+    }
+
+    @Test
+    void calculateScoresMatchesFullSortOverModel() throws Exception {
+        Random random = new Random(7);
+        for (int run = 0; run < 200; run++) {
+            List<Supplement> supplements = new ArrayList<>();
+            int size = random.nextInt(12);
+            for (int i = 0; i < size; i++) {
+                supplements.add(new Supplement((long) i, "S" + i, "Добавка " + i, null, Set.of(), true));
+            }
+            List<GoogleSheetsDataService.BaseScore> baseScores = new ArrayList<>();
+            List<GoogleSheetsDataService.AnswerScore> answerScores = new ArrayList<>();
+            for (int i = 0; i < size * 3; i++) {
+                baseScores.add(baseScore("S" + random.nextInt(size), TOPICS[random.nextInt(TOPICS.length)],
+                    random.nextInt(4)));
+                answerScores.add(answerScore(QUESTIONS[random.nextInt(QUESTIONS.length)],
+                    ANSWERS[random.nextInt(ANSWERS.length)], "S" + random.nextInt(size), random.nextInt(7) - 2));
+            }
+            ScoringModel model = ScoringModel.build(supplements, answerScores, baseScores);
+            ScoreCalculationService service = new ScoreCalculationService(fixedModel(model));
+
+            List<UserAnswer> answers = new ArrayList<>();
+            for (int i = random.nextInt(5); i > 0; i--) {
+                answers.add(userAnswer(QUESTIONS[random.nextInt(QUESTIONS.length)],
+                    ANSWERS[random.nextInt(ANSWERS.length)].toUpperCase(Locale.ROOT)));
+            }
+            String topic = TOPICS[random.nextInt(TOPICS.length)];
+
+            ScoreCalculationService.RecommendationResult result = service.calculateScores(answers, topic);
+
+            int[] expectedScores = referenceScores(size, baseScores, answerScores, answers, topic);
+            int[] expectedTop = fullSortTop(expectedScores, size);
+            List<ScoreCalculationService.SupplementWithScore> actual = new ArrayList<>(result.getMainRecommendations());
+            actual.addAll(result.getAdditionalRecommendations());
+            assertEquals(expectedTop.length, actual.size());
+            assertTrue(result.getMainRecommendations().size() <= 3);
+            for (int i = 0; i < expectedTop.length; i++) {
+                ScoreCalculationService.SupplementWithScore recommendation = actual.get(i);
+                assertEquals(expectedTop[i], recommendation.getOrdinal());
+                assertEquals("S" + expectedTop[i], recommendation.getSupplement().getCode());
+                assertEquals(expectedScores[expectedTop[i]], recommendation.getScore());
+                assertEquals(recommendation.getScore(), recommendation.getBaseScore() + recommendation.getAnswerScore());
+            }
+        }
+    }
+
+    @Test
+    void modelKeepsLastRowForDuplicateCodeAndSumsBaseScores() {
+        List<Supplement> supplements = List.of(
+            new Supplement(1L, "A", "Первая строка", null, Set.of(), true),
+            new Supplement(2L, "B", "Вторая", null, Set.of(), true),
+            new Supplement(3L, "A", "Последняя строка", null, Set.of(), true));
+        ScoringModel model = ScoringModel.build(supplements,
+            List.of(answerScore("q1", "Да", "B", 2), answerScore("q1", "да", "A", 1), answerScore("q1", "да", "X", 5)),
+            List.of(baseScore("A", "Energy", 2), baseScore("A", "energy", 1), baseScore("X", "energy", 4)));
+
+        assertEquals(2, model.size());
+        assertEquals("Последняя строка", model.getSupplement(model.ordinalOf("A")).getName());
+        assertEquals(-1, model.ordinalOf("X"));
+        assertArrayEquals(new int[] { 3, 0 }, model.getBaseScores("ENERGY"));
+        assertNull(model.getBaseScores("sleep"));
+        assertArrayEquals(new int[] { 1, 2, 0, 1 }, model.getRules("q1", "ДА"));
+        assertEquals(0, model.getRules("q1", null).length);
+        assertEquals(2, model.getRulesCount());
+    }
+
+    /**
+     * Эталон: полная сортировка по убыванию баллов, при равенстве - по индексу, только положительные
+     */
+    private static int[] fullSortTop(int[] scores, int size) {
+        return IntStream.range(0, size).boxed()
+            .filter(i -> scores[i] > 0)
+            .sorted(Comparator.comparingInt((Integer i) -> -scores[i]).thenComparingInt(i -> i))
+            .limit(5)
+            .mapToInt(Integer::intValue)
+            .toArray();
+    }
+
+    private static int[] referenceScores(int size, List<GoogleSheetsDataService.BaseScore> baseScores,
+                                         List<GoogleSheetsDataService.AnswerScore> answerScores,
+                                         List<UserAnswer> answers, String topic) {
+        int[] scores = new int[size];
+        for (GoogleSheetsDataService.BaseScore baseScore : baseScores) {
+            if (baseScore.getTopic().equalsIgnoreCase(topic)) {
+                scores[Integer.parseInt(baseScore.getSupplementCode().substring(1))] += (int) baseScore.getBaseScore();
+            }
+        }
+        for (UserAnswer answer : answers) {
+            for (GoogleSheetsDataService.AnswerScore rule : answerScores) {
+                if (rule.getQuestionId().equals(answer.getQuestionId()) && rule.getAnswer().equalsIgnoreCase(answer.getAnswer())) {
+                    scores[Integer.parseInt(rule.getSupplementCode().substring(1))] += (int) rule.getScore();
+                }
+            }
+        }
+        return scores;
+    }
+
+    private static ScoringModelService fixedModel(ScoringModel model) {
+        return new ScoringModelService(null) {
+            @Override
+            public ScoringModel getModel() {
+                return model;
+            }
+        };
+    }
+
+    private static GoogleSheetsDataService.BaseScore baseScore(String code, String topic, double score) {
+        GoogleSheetsDataService.BaseScore baseScore = new GoogleSheetsDataService.BaseScore();
+        baseScore.setSupplementCode(code);
+        baseScore.setTopic(topic);
+        baseScore.setBaseScore(score);
+        return baseScore;
+    }
+
+    private static GoogleSheetsDataService.AnswerScore answerScore(String questionId, String answer, String code, double score) {
+        GoogleSheetsDataService.AnswerScore answerScore = new GoogleSheetsDataService.AnswerScore();
+        answerScore.setQuestionId(questionId);
+        answerScore.setAnswer(answer);
+        answerScore.setSupplementCode(code);
+        answerScore.setScore(score);
+        return answerScore;
+    }
+
+    private static UserAnswer userAnswer(String questionId, String value) {
+        UserAnswer answer = new UserAnswer();
+        answer.setQuestionId(questionId);
+        answer.setAnswer(value);
+        return answer;
+    }
+}
@@ -0,0 +1,107 @@
+package com.soloway.BadRecommender.service;
+
+import com.soloway.BadRecommender.model.TelegramUser;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Компактное хранение ответов TelegramUser и формат сессий TelegramSessionStore
+ */
+class TelegramSessionStoreTest {
+
+    private static final List<String> OPTIONS = List.of("никогда", "иногда", "часто");
+
+    @TempDir
+    Path dataDir;
+
+    @Test
+    void roundTripRestoresSession() {
+        TelegramSessionStore store = new TelegramSessionStore(dataDir.toString());
+        TelegramUser user = new TelegramUser(-1001234567890L);
+        user.setUsername("tester");
+        user.setFirstName("Анна");
+        user.setEmail("anna@example.com");
+        user.setState(TelegramUser.UserState.SURVEY_IN_PROGRESS);
+        user.setSelectedTopic("Сильный иммунитет");
+        user.setQuestionsHash(-123456789);
+        user.setCurrentQuestionIndex(4);
+        user.addAnswerOption(0, 2);
+        user.addAnswer(1, "свой вариант");
+        user.addAnswerOption(2, 254);
+        user.setLastActivityEpochSecond(1_700_000_000);
+
+        store.save(user);
+        TelegramUser loaded = store.load(user.getChatId());
+
+        assertNotNull(loaded);
+        assertEquals(user.getChatId(), loaded.getChatId());
+        assertEquals("tester", loaded.getUsername());
+        assertEquals("Анна", loaded.getFirstName());
+        assertNull(loaded.getLastName());
+        assertEquals("anna@example.com", loaded.getEmail());
+        assertEquals(TelegramUser.UserState.SURVEY_IN_PROGRESS, loaded.getState());
+        assertEquals("Сильный иммунитет", loaded.getSelectedTopic());
+        assertEquals(-123456789, loaded.getQuestionsHash());
+        assertEquals(4, loaded.getCurrentQuestionIndex());
+        assertArrayEquals(user.getAnswerOptions(), loaded.getAnswerOptions());
+        assertEquals(Map.of(1, "свой вариант"), loaded.getTextAnswers());
+        assertEquals(1_700_000_000, loaded.getLastActivityEpochSecond());
+        assertFalse(loaded.isSurveyCompleted());
+    }
+
+    @Test
+    void loadReturnsNullForMissingSession() {
+        TelegramSessionStore store = new TelegramSessionStore(dataDir.toString());
+        assertNull(store.load(42L));
+    }
+
+    @Test
+    void getAnswerMapsOptionIndexBackOrReturnsText() {
+        TelegramUser user = new TelegramUser(1L);
+        user.addAnswerOption(0, 1);
+        user.addAnswer(1, "другое");
+
+        assertEquals("иногда", user.getAnswer(0, OPTIONS));
+        assertEquals("другое", user.getAnswer(1, OPTIONS));
+        assertNull(user.getAnswer(2, OPTIONS));
+    }
+
+    @Test
+    void addAnswerOptionReplacesTextAnswerOnSameIndex() {
+        TelegramUser user = new TelegramUser(1L);
+        user.addAnswer(0, "другое");
+        user.addAnswerOption(0, 2);
+
+        assertEquals("часто", user.getAnswer(0, OPTIONS));
+        assertTrue(user.getTextAnswers().isEmpty());
+
+        // И наоборот: текстовый ответ заменяет вариант
+        user.addAnswer(0, "снова другое");
+        assertEquals("снова другое", user.getAnswer(0, OPTIONS));
+    }
+
+    @Test
+    void optionIndexBoundaries() {
+        List<String> options = new ArrayList<>();
+        for (int i = 0; i < 256; i++) {
+            options.add("вариант " + i);
+        }
+        TelegramUser user = new TelegramUser(1L);
+
+        // 254 - последний номер, который помещается в беззнаковый byte как номер + 1
+        user.addAnswerOption(0, 254);
+        assertEquals("вариант 254", user.getAnswer(0, options));
+        assertEquals((byte) 0xFF, user.getAnswerOptions()[0]);
+
+        assertThrows(IllegalArgumentException.class, () -> user.addAnswerOption(1, 255));
+        assertThrows(IllegalArgumentException.class, () -> user.addAnswerOption(1, -1));
+        assertNull(user.getAnswer(1, options));
+    }
+}